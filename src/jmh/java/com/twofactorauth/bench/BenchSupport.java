@@ -0,0 +1,97 @@
+package com.twofactorauth.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.twofactorauth.model.ElpMetadata;
+import com.twofactorauth.repo.ElpMetadataRepository;
+import com.twofactorauth.service.ServiceMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Wiring helpers for running services outside a Spring context.
+ *
+ * Run the benchmarks with: ./mvnw -Pjmh compile exec:exec
+ */
+final class BenchSupport {
+
+    static final String ENCRYPTION_SECRET = "benchmark-encryption-secret";
+
+    private BenchSupport() {}
+
+    /**
+     * Set a private (usually @Value or @Autowired) field
+     */
+    static void setField(Object target, String name, Object value) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " on " + target.getClass());
+    }
+
+    /**
+     * ServiceMetrics recording into an in-memory registry, so timings cost what they do in production
+     */
+    static ServiceMetrics serviceMetrics() {
+        ServiceMetrics metrics = new ServiceMetrics();
+        setField(metrics, "registry", new SimpleMeterRegistry());
+        metrics.init();
+        return metrics;
+    }
+
+    /**
+     * In-memory ElpMetadataRepository supporting save and findByElpId
+     */
+    static ElpMetadataRepository inMemoryElpMetadataRepository() {
+        Map<String, ElpMetadata> byElpId = new ConcurrentHashMap<>();
+        return (ElpMetadataRepository) Proxy.newProxyInstance(
+            ElpMetadataRepository.class.getClassLoader(),
+            new Class<?>[] { ElpMetadataRepository.class },
+            (proxy, method, args) -> switch (method.getName()) {
+                case "save" -> {
+                    ElpMetadata metadata = (ElpMetadata) args[0];
+                    byElpId.put(metadata.getElpId(), metadata);
+                    yield metadata;
+                }
+                case "findByElpId" -> byElpId.get((String) args[0]);
+                case "toString" -> "InMemoryElpMetadataRepository";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    /**
+     * MultipartFile over a byte array
+     */
+    static MultipartFile multipartFile(String filename, byte[] content) {
+        return new MultipartFile() {
+            @Override public String getName() { return "file"; }
+            @Override public String getOriginalFilename() { return filename; }
+            @Override public String getContentType() { return "application/octet-stream"; }
+            @Override public boolean isEmpty() { return content.length == 0; }
+            @Override public long getSize() { return content.length; }
+            @Override public byte[] getBytes() { return content.clone(); }
+            @Override public InputStream getInputStream() { return new ByteArrayInputStream(content); }
+            @Override public void transferTo(File dest) { throw new UnsupportedOperationException(); }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.twofactorauth.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.service.AccountCodeService;
+import com.twofactorauth.service.EncryptionService;
+import com.twofactorauth.service.ServiceMetrics;
+import com.twofactorauth.service.TotpEngine;
+
+/**
+ * The per-account decrypt-and-generate loop behind /current-codes and /accounts,
+ * measured without the per-step cache or Mongo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CurrentCodesBenchmark {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    @Param({ "1", "50", "500" })
+    private int accountsPerUser;
+
+    private AccountCodeService accountCodeService;
+    private List<Account> accounts;
+    private long step;
+
+    @Setup
+    public void setup() {
+        EncryptionService encryptionService = new EncryptionService();
+        BenchSupport.setField(encryptionService, "secretKey", BenchSupport.ENCRYPTION_SECRET);
+        ServiceMetrics serviceMetrics = BenchSupport.serviceMetrics();
+        BenchSupport.setField(encryptionService, "serviceMetrics", serviceMetrics);
+
+        accountCodeService = new AccountCodeService();
+        BenchSupport.setField(accountCodeService, "encryptionService", encryptionService);
+        BenchSupport.setField(accountCodeService, "serviceMetrics", serviceMetrics);
+
+        accounts = new ArrayList<>(accountsPerUser);
+        for (int i = 0; i < accountsPerUser; i++) {
+            StringBuilder secret = new StringBuilder(32);
+            for (int c = 0; c < 32; c++) {
+                secret.append(ALPHABET.charAt((i * 31 + c * 7) % ALPHABET.length()));
+            }
+            accounts.add(new Account("Issuer" + i, encryptionService.encrypt(secret.toString()),
+                    "user" + i + "@example.com", null));
+        }
+        step = TotpEngine.timeStep(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public List<AccountCodeService.AccountCode> computeCodes() {
+        return accountCodeService.computeCodes(accounts, step);
+    }
+
+    @Benchmark
+    public Object currentCodesBody() {
+        return AccountCodeService.toCurrentCodesBody(accountCodeService.computeCodes(accounts, step));
+    }
+}
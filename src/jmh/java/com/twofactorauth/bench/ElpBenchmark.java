@@ -0,0 +1,65 @@
+package com.twofactorauth.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.twofactorauth.repo.ElpMetadataRepository;
+import com.twofactorauth.service.ElpMetadataLookup;
+import com.twofactorauth.service.ElpService;
+
+/**
+ * ELP file generation and validation against an in-memory metadata store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElpBenchmark {
+
+    private static final String USER_ID = "64b7f0c2a1d3e4f5a6b7c8d9";
+
+    private ElpService elpService;
+    private MultipartFile elpFile;
+
+    @Setup
+    public void setup() throws Exception {
+        elpService = new ElpService();
+        BenchSupport.setField(elpService, "encryptionKey", "benchmark-elp-encryption-key");
+        BenchSupport.setField(elpService, "hmacKey", "benchmark-elp-hmac-key");
+        ElpMetadataRepository repository = BenchSupport.inMemoryElpMetadataRepository();
+        BenchSupport.setField(elpService, "elpMetadataRepository", repository);
+        // Lookup without a started filter: cache hits, otherwise straight to the repository
+        ElpMetadataLookup lookup = new ElpMetadataLookup();
+        BenchSupport.setField(lookup, "elpMetadataRepository", repository);
+        BenchSupport.setField(lookup, "cacheMaxEntries", 1000);
+        BenchSupport.setField(elpService, "elpMetadataLookup", lookup);
+        BenchSupport.setField(elpService, "maxFileBytes", 16384);
+        elpService.init();
+
+        ElpService.ELPResult result = elpService.generateElpFile(USER_ID, "bench-user", "bench@example.com");
+        elpFile = BenchSupport.multipartFile(result.getFilename(), result.getFileContent());
+    }
+
+    @Benchmark
+    public ElpService.ELPResult generateElpFile() throws Exception {
+        return elpService.generateElpFile(USER_ID, "bench-user", "bench@example.com");
+    }
+
+    @Benchmark
+    public boolean validateElpFile() throws Exception {
+        return elpService.validateElpFile(elpFile, USER_ID);
+    }
+}
@@ -0,0 +1,63 @@
+package com.twofactorauth.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twofactorauth.service.EncryptionService;
+
+/**
+ * AES encryption of stored secrets and PINs: the String API versus
+ * decrypting raw bytes into a reused buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final String SECRET = "JBSWY3DPEHPK3PXPJBSWY3DPEHPK3PXP";
+
+    private EncryptionService encryptionService;
+    private String encrypted;
+    private byte[] ciphertext;
+    private final ByteBuffer plaintext = ByteBuffer.allocate(128);
+
+    @Setup
+    public void setup() {
+        encryptionService = new EncryptionService();
+        BenchSupport.setField(encryptionService, "secretKey", BenchSupport.ENCRYPTION_SECRET);
+        BenchSupport.setField(encryptionService, "serviceMetrics", BenchSupport.serviceMetrics());
+        encrypted = encryptionService.encrypt(SECRET);
+        ciphertext = Base64.getDecoder().decode(encrypted);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return encryptionService.encrypt(SECRET);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return encryptionService.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public int decryptIntoBuffer() {
+        plaintext.clear();
+        return encryptionService.decrypt(ByteBuffer.wrap(ciphertext), plaintext);
+    }
+}
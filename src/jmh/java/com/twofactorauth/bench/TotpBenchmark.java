@@ -0,0 +1,83 @@
+package com.twofactorauth.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twofactorauth.service.TotpEngine;
+import com.twofactorauth.service.TotpService;
+
+/**
+ * TOTP generation: the static compatibility path versus a prepared generator,
+ * plus verification across a +-1 step window with and without a known drift.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TotpBenchmark {
+
+    // 160-bit secret, the usual authenticator length
+    private static final String SECRET = "JBSWY3DPEHPK3PXPJBSWY3DPEHPK3PXP";
+
+    private TotpEngine.Generator generator;
+    private long timeMillis;
+    private long step;
+    private String previousStepCode;
+
+    @Setup
+    public void setup() throws Exception {
+        generator = TotpEngine.prepare(SECRET);
+        timeMillis = System.currentTimeMillis();
+        step = TotpEngine.timeStep(timeMillis);
+        previousStepCode = TotpEngine.formatCode(generator.generate(step - 1));
+    }
+
+    @Benchmark
+    public int generateTotpStatic() throws Exception {
+        return TotpService.generateTOTP(SECRET, timeMillis);
+    }
+
+    @Benchmark
+    public int generatePrepared() {
+        return generator.generate(step);
+    }
+
+    @Benchmark
+    public TotpEngine.Generator prepare() throws Exception {
+        return TotpEngine.prepare(SECRET);
+    }
+
+    @Benchmark
+    public byte[] decodeBase32() {
+        return TotpEngine.decodeBase32(SECRET);
+    }
+
+    @Benchmark
+    public String formatCode() {
+        return TotpEngine.formatCode(generator.generate(step));
+    }
+
+    // Client one step behind: 3 HMACs without drift knowledge (0, +1, -1)
+    @Benchmark
+    public long verifyDriftUnknown() throws Exception {
+        return TotpService.verifyCode(SECRET, previousStepCode, timeMillis, 1, 0);
+    }
+
+    // Same client once its drift is learned: matched on the first HMAC
+    @Benchmark
+    public long verifyDriftLearned() throws Exception {
+        return TotpService.verifyCode(SECRET, previousStepCode, timeMillis, 1, -1);
+    }
+}
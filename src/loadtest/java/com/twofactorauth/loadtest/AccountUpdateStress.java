@@ -0,0 +1,205 @@
+package com.twofactorauth.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.twofactorauth.model.UserTotp;
+import com.twofactorauth.repo.UserTotpRepository;
+
+/**
+ * Checks that concurrent writes to one user document are not lost.
+ *
+ * 1. Many clients add accounts for the same user at once; every account must be stored.
+ * 2. The same clients remove them again at once; none may remain.
+ * 3. Many threads increment a counter kept in the PIN field through
+ *    compareAndSetPin, retrying on conflict; the final value must equal the
+ *    number of increments.
+ *
+ * Needs a running MongoDB. The service starts with mongo.indexes.plan-check=fail
+ * and, where permitted, the server's notablescan parameter is set for the run,
+ * so any query that regresses to a collection scan fails. Exits with status 1
+ * if any check fails.
+ *
+ * Options: --mongo-uri=mongodb://127.0.0.1:27017/loadtest --clients=64 --per-client=10 --pin-increments=500
+ */
+public final class AccountUpdateStress {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        String mongoUri = stringOption(args, "mongo-uri", "mongodb://127.0.0.1:27017/loadtest");
+        int clients = (int) VirtualThreadLoadTest.option(args, "clients", 64);
+        int perClient = (int) VirtualThreadLoadTest.option(args, "per-client", 10);
+        int pinIncrements = (int) VirtualThreadLoadTest.option(args, "pin-increments", 500);
+
+        boolean passed = true;
+        try (StubAuthServer authServer = StubAuthServer.start(0);
+             ServiceUnderTest service = ServiceUnderTest.start(authServer.baseUrl(), mongoUri,
+                     Map.of("mongo.indexes.plan-check", "fail", "ratelimit.enabled", "false"));
+             HttpClient client = HttpClient.newHttpClient();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            String username = "stress-" + UUID.randomUUID() + "@example.com";
+            String token = StubAuthServer.tokenFor(username);
+            int expected = clients * perClient;
+            UserTotpRepository repository = service.context().getBean(UserTotpRepository.class);
+            MongoClient mongoClient = service.context().getBean(MongoClient.class);
+            boolean scansForbidden = forbidCollectionScans(mongoClient, true);
+            try {
+                // Create the document up front so the add phase measures $push, not
+                // racing upserts of a brand-new user
+                UserTotp seed = new UserTotp();
+                seed.setUsername(username);
+                repository.save(seed);
+
+                // 1. Concurrent adds
+                List<Future<Integer>> adds = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int clientId = c;
+                    adds.add(executor.submit(() -> {
+                        int failed = 0;
+                        for (int i = 0; i < perClient; i++) {
+                            String body = MAPPER.writeValueAsString(Map.of(
+                                "issuer", "Stress",
+                                "nickname", "c" + clientId + "-" + i,
+                                "secret", "JBSWY3DPEHPK3PXP"
+                            ));
+                            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(service.baseUrl() + "/add-account"))
+                                    .header("Authorization", "Bearer " + token)
+                                    .header("Content-Type", "application/json")
+                                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                                    .build(), HttpResponse.BodyHandlers.ofString());
+                            failed += response.statusCode() == 201 ? 0 : 1;
+                        }
+                        return failed;
+                    }));
+                }
+                int addFailures = sum(adds);
+                int stored = countAccounts(client, service.baseUrl(), token);
+                passed &= report("concurrent add", expected, stored, addFailures);
+
+                // 2. Concurrent removes
+                List<Future<Integer>> removes = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int clientId = c;
+                    removes.add(executor.submit(() -> {
+                        int failed = 0;
+                        for (int i = 0; i < perClient; i++) {
+                            HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                                        URI.create(service.baseUrl() + "/account/Stress/c" + clientId + "-" + i))
+                                    .header("Authorization", "Bearer " + token)
+                                    .DELETE()
+                                    .build(), HttpResponse.BodyHandlers.ofString());
+                            failed += response.statusCode() == 200 ? 0 : 1;
+                        }
+                        return failed;
+                    }));
+                }
+                int removeFailures = sum(removes);
+                int remaining = countAccounts(client, service.baseUrl(), token);
+                passed &= report("concurrent remove", 0, remaining, removeFailures);
+
+                // 3. Compare-and-set PIN writes
+                AtomicInteger conflicts = new AtomicInteger();
+                List<Future<Integer>> increments = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int share = pinIncrements / clients + (c < pinIncrements % clients ? 1 : 0);
+                    increments.add(executor.submit(() -> {
+                        for (int i = 0; i < share; i++) {
+                            while (true) {
+                                UserTotp user = repository.findByUsername(username).orElseThrow();
+                                int current = user.getPin() == null ? 0 : Integer.parseInt(user.getPin());
+                                if (repository.compareAndSetPin(user.getId(), user.getPinVersion(), Integer.toString(current + 1))) {
+                                    break;
+                                }
+                                conflicts.incrementAndGet();
+                            }
+                        }
+                        return 0;
+                    }));
+                }
+                sum(increments);
+                UserTotp user = repository.findByUsername(username).orElseThrow();
+                int counter = Integer.parseInt(user.getPin());
+                System.out.println("PIN compare-and-set: " + conflicts.get() + " conflicts retried");
+                passed &= report("compare-and-set PIN", pinIncrements, counter, 0);
+
+                repository.delete(user);
+            } finally {
+                if (scansForbidden) {
+                    forbidCollectionScans(mongoClient, false);
+                }
+            }
+        }
+
+        System.out.println(passed ? "All checks passed" : "Lost updates detected");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Toggles the server's notablescan parameter so any query without a usable
+     * index fails during the run. Needs admin rights; skipped if not allowed.
+     */
+    private static boolean forbidCollectionScans(MongoClient mongoClient, boolean forbid) {
+        try {
+            mongoClient.getDatabase("admin").runCommand(new Document("setParameter", 1).append("notablescan", forbid));
+            return true;
+        } catch (MongoException e) {
+            System.out.println("Could not set notablescan=" + forbid + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static int countAccounts(HttpClient client, String baseUrl, String token) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/accounts"))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(30))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode body = MAPPER.readTree(response.body());
+        return body.isArray() ? body.size() : 0;
+    }
+
+    private static int sum(List<Future<Integer>> futures) throws Exception {
+        int total = 0;
+        for (Future<Integer> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    private static boolean report(String name, int expected, int actual, int failedRequests) {
+        boolean ok = expected == actual && failedRequests == 0;
+        System.out.println(String.format("%-22s expected %d, got %d, failed requests %d -> %s",
+                name, expected, actual, failedRequests, ok ? "OK" : "FAIL"));
+        return ok;
+    }
+
+    static String stringOption(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,176 @@
+package com.twofactorauth.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cold start: time from launching the service process to its first
+ * successful (200) /current-codes response.
+ *
+ * Each command is launched --runs times, alternating, as a separate process
+ * configured through the same environment variables application.properties
+ * reads. Before the measured runs the first command is started once to
+ * create the probe user and its account, so every measured request does the
+ * full token validation, Mongo read, decrypt and code generation.
+ *
+ * Compare the plain jar with the AOT + CDS build (see the aot profile in
+ * pom.xml), e.g.:
+ *   --baseline="java -jar target/twofactorauth-0.0.1-SNAPSHOT.jar"
+ *   --candidate="java -XX:SharedArchiveFile=target/cds/application.jsa -Dspring.aot.enabled=true -jar target/cds/application.jar"
+ *
+ * Options: --runs=5 --timeout-s=120 --mongo-uri=... (default: start mongod from
+ * the PATH; --mongod=/path/to/mongod, or --mongod=memory for an in-memory stand-in)
+ */
+public final class ColdStartProbe {
+
+    private static final String USERNAME = "coldstart@example.com";
+
+    public static void main(String[] args) throws Exception {
+        String mongoUri = AccountUpdateStress.stringOption(args, "mongo-uri", null);
+        String mongod = AccountUpdateStress.stringOption(args, "mongod", "mongod");
+        int runs = (int) VirtualThreadLoadTest.option(args, "runs", 5);
+        Duration timeout = Duration.ofSeconds(VirtualThreadLoadTest.option(args, "timeout-s", 120));
+        Map<String, String> commands = new LinkedHashMap<>();
+        commands.put("baseline", AccountUpdateStress.stringOption(args, "baseline", null));
+        commands.put("candidate", AccountUpdateStress.stringOption(args, "candidate", null));
+        commands.values().removeIf(command -> command == null || command.isBlank());
+        if (commands.isEmpty()) {
+            System.out.println("Pass --baseline=\"<command>\" and/or --candidate=\"<command>\"");
+            System.exit(2);
+        }
+
+        Map<String, List<Long>> results = new LinkedHashMap<>();
+        commands.keySet().forEach(name -> results.put(name, new ArrayList<>()));
+        try (MongoStandIn mongo = MongoStandIn.start(mongoUri, mongod);
+             StubAuthServer authServer = StubAuthServer.start(0);
+             HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build()) {
+
+            Map<String, String> mongoEnv = new LinkedHashMap<>();
+            mongoEnv.put("SPRING_DATA_MONGODB_URI", mongo.uri());
+            if (mongo.isInMemory()) {
+                mongoEnv.put("MONGO_INDEXES_PLAN_CHECK", "off");
+            }
+            seed(client, commands.values().iterator().next(), authServer.baseUrl(), mongoEnv, timeout);
+            for (int run = 1; run <= runs; run++) {
+                for (Map.Entry<String, String> command : commands.entrySet()) {
+                    long millis = measure(client, command.getValue(), authServer.baseUrl(), mongoEnv, timeout);
+                    System.out.println(command.getKey() + " run " + run + ": " + millis + " ms");
+                    results.get(command.getKey()).add(millis);
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("=== Time to first successful /current-codes ===");
+        results.forEach((name, millis) -> {
+            List<Long> sorted = new ArrayList<>(millis);
+            Collections.sort(sorted);
+            System.out.println(String.format("%-10s median %6d ms   min %6d ms   max %6d ms   (%d runs)",
+                    name, sorted.get(sorted.size() / 2), sorted.get(0), sorted.get(sorted.size() - 1), sorted.size()));
+        });
+    }
+
+    private static void seed(HttpClient client, String command, String authUrl, Map<String, String> mongoEnv,
+                             Duration timeout) throws Exception {
+        int port = freePort();
+        Process process = launch(command, port, authUrl, mongoEnv);
+        try {
+            String body = "{\"issuer\":\"ColdStart\",\"nickname\":\"probe\",\"secret\":\"JBSWY3DPEHPK3PXP\"}";
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/add-account"))
+                    .header("Authorization", "Bearer " + StubAuthServer.tokenFor(USERNAME))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(10))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            awaitStatus(client, request, 201, process, timeout);
+        } finally {
+            stop(process);
+        }
+    }
+
+    private static long measure(HttpClient client, String command, String authUrl, Map<String, String> mongoEnv,
+                                Duration timeout) throws Exception {
+        int port = freePort();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/current-codes"))
+                .header("Authorization", "Bearer " + StubAuthServer.tokenFor(USERNAME))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        Process process = launch(command, port, authUrl, mongoEnv);
+        try {
+            awaitStatus(client, request, 200, process, timeout);
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            stop(process);
+        }
+    }
+
+    private static Process launch(String command, int port, String authUrl, Map<String, String> mongoEnv)
+            throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(Arrays.asList(command.trim().split("\\s+")))
+                .redirectErrorStream(true)
+                .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "coldstart-probe.log"));
+        Map<String, String> env = builder.environment();
+        env.put("SPRING_APPLICATION_NAME", "twofactorauth-coldstart");
+        env.put("SERVER_PORT", Integer.toString(port));
+        env.put("SPRING_THYMELEAF_CACHE", "true");
+        env.put("ENCRYPTION_SECRET", "coldstart-encryption-secret");
+        env.put("ELP_ENCRYPTION_KEY", "coldstart-elp-encryption-key");
+        env.put("ELP_HMAC_KEY", "coldstart-elp-hmac-key");
+        env.put("ADMIN_TOKEN", "coldstart-admin-token");
+        env.put("API_AUTH_VALIDATE_TOKEN", authUrl + "/api/v1/auth/validateToken");
+        env.put("API_ADMIN_GENERATE_JWT_TOKEN", authUrl + "/api/v1/admin/generateJwtToken");
+        env.put("AUTH_SERVER_URL", authUrl);
+        env.putAll(mongoEnv);
+        return builder.start();
+    }
+
+    private static void awaitStatus(HttpClient client, HttpRequest request, int status, Process process,
+                                    Duration timeout) throws Exception {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        int last = -1;
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Service exited with status " + process.exitValue()
+                        + "; see coldstart-probe.log in " + System.getProperty("java.io.tmpdir"));
+            }
+            try {
+                last = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (last == status) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("No " + status + " response within " + timeout + " (last status " + last + ")");
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
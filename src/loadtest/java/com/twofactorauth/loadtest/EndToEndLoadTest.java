@@ -0,0 +1,120 @@
+package com.twofactorauth.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongFunction;
+
+/**
+ * End-to-end load test of the three hot endpoints against local stand-ins:
+ * the stub auth server (latency and error injection), a throwaway mongod or
+ * an existing Mongo, and a seeded dataset.
+ *
+ * - /current-codes: token validation, account read, decrypt and code generation
+ * - /verify-pin: token validation, PIN read and decrypt
+ * - /api/v1/elp/login: multipart upload, ELP decrypt, HMAC and metadata lookup
+ *
+ * Requests spread over all seeded users, so the token and code caches behave
+ * as with real traffic: each user's first request in a time step misses.
+ * Rate limiting is disabled because all load comes from one address.
+ *
+ * Options: --users=1000 --accounts=10 --elp-users=200 --concurrency=200
+ *   --duration-s=30 --warmup-s=5 --auth-latency-ms=5 --auth-error-rate=0
+ *   --mongo-uri=... (default: start mongod from the PATH; --mongod=/path/to/mongod, or
+ *   --mongod=memory for an in-memory stand-in)
+ */
+public final class EndToEndLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int users = (int) VirtualThreadLoadTest.option(args, "users", 1000);
+        int accounts = (int) VirtualThreadLoadTest.option(args, "accounts", 10);
+        int elpUsers = (int) Math.min(users, VirtualThreadLoadTest.option(args, "elp-users", 200));
+        int concurrency = (int) VirtualThreadLoadTest.option(args, "concurrency", 200);
+        Duration duration = Duration.ofSeconds(VirtualThreadLoadTest.option(args, "duration-s", 30));
+        Duration warmup = Duration.ofSeconds(VirtualThreadLoadTest.option(args, "warmup-s", 5));
+        long authLatencyMillis = VirtualThreadLoadTest.option(args, "auth-latency-ms", 5);
+        double authErrorRate = Double.parseDouble(AccountUpdateStress.stringOption(args, "auth-error-rate", "0"));
+        String mongoUri = AccountUpdateStress.stringOption(args, "mongo-uri", null);
+        String mongod = AccountUpdateStress.stringOption(args, "mongod", "mongod");
+
+        List<LoadGenerator.Result> results = new ArrayList<>();
+        try (MongoStandIn mongo = MongoStandIn.start(mongoUri, mongod);
+             StubAuthServer authServer = StubAuthServer.start(authLatencyMillis, authErrorRate);
+             ServiceUnderTest service = ServiceUnderTest.start(authServer.baseUrl(), mongo.uri(), Map.of(
+                     "ratelimit.enabled", "false",
+                     "mongo.indexes.plan-check", mongo.isInMemory() ? "off" : "warn",
+                     "auth.http.max-connections", Integer.toString(Math.max(200, concurrency)),
+                     "auth.http.max-connections-per-route", Integer.toString(Math.max(200, concurrency)),
+                     "auth.resilience.max-concurrent-calls", Integer.toString(Math.max(200, concurrency))))) {
+
+            LoadDataset dataset = LoadDataset.seed(service.context(), users, accounts, elpUsers);
+            try {
+                String baseUrl = service.baseUrl();
+                Map<String, LongFunction<HttpRequest>> scenarios = new LinkedHashMap<>();
+                scenarios.put("GET /current-codes", n -> currentCodes(baseUrl, dataset.user(n)));
+                scenarios.put("POST /verify-pin", n -> verifyPin(baseUrl, dataset.user(n)));
+                if (dataset.hasElpUsers()) {
+                    scenarios.put("POST /api/v1/elp/login", n -> elpLogin(baseUrl, dataset.elpUser(n)));
+                }
+
+                for (Map.Entry<String, LongFunction<HttpRequest>> scenario : scenarios.entrySet()) {
+                    LoadGenerator.run("warm-up", Math.min(concurrency, 50), warmup, scenario.getValue());
+                    LoadGenerator.Result result = LoadGenerator.run(scenario.getKey(), concurrency, duration,
+                            scenario.getValue());
+                    System.out.println(result.summary());
+                    results.add(result);
+                }
+            } finally {
+                if (!mongo.isThrowaway()) {
+                    dataset.remove(service.context());
+                }
+            }
+
+            System.out.println();
+            System.out.println(String.format("=== End-to-end load test: %d users x %d accounts, auth %dms, auth errors %.1f%% (%d injected) ===",
+                    users, accounts, authLatencyMillis, authErrorRate * 100, authServer.getInjectedErrors()));
+            results.forEach(result -> System.out.println(result.summary()));
+        }
+        // Boot's Netty event loop for the reactive Mongo client outlives the closed context
+        System.exit(0);
+    }
+
+    private static HttpRequest currentCodes(String baseUrl, LoadDataset.User user) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/current-codes"))
+                .header("Authorization", "Bearer " + user.token())
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+    }
+
+    private static HttpRequest verifyPin(String baseUrl, LoadDataset.User user) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/verify-pin"))
+                .header("Authorization", "Bearer " + user.token())
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(30))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"pin\":\"" + user.pin() + "\"}"))
+                .build();
+    }
+
+    private static HttpRequest elpLogin(String baseUrl, LoadDataset.User user) {
+        String boundary = "loadtest-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(user.elpFile().length + 256);
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + user.elpFilename() + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(user.elpFile());
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/elp/login"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .timeout(Duration.ofSeconds(30))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+}
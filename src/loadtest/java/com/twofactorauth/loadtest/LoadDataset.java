@@ -0,0 +1,130 @@
+package com.twofactorauth.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.model.ElpMetadata;
+import com.twofactorauth.model.UserTotp;
+import com.twofactorauth.service.ElpService;
+import com.twofactorauth.service.EncryptionService;
+import com.twofactorauth.service.TotpEngine;
+
+/**
+ * Users seeded straight into Mongo through the running service's beans, so
+ * secrets and PINs are encrypted with its key and ELP files are ones it
+ * accepts. Usernames share a per-run prefix, which is how {@link #remove}
+ * finds them again.
+ */
+public final class LoadDataset {
+
+    private static final int INSERT_BATCH = 1000;
+
+    /**
+     * One seeded user. elpFile is null for users without an ELP file.
+     */
+    public record User(String username, String token, String pin, String elpFilename, byte[] elpFile) {}
+
+    private final String prefix;
+    private final List<User> users;
+    private final List<User> elpUsers;
+
+    private LoadDataset(String prefix, List<User> users, List<User> elpUsers) {
+        this.prefix = prefix;
+        this.users = users;
+        this.elpUsers = elpUsers;
+    }
+
+    /**
+     * @param elpUsers how many of the users also get an ELP file; generating one costs a key derivation
+     */
+    public static LoadDataset seed(ConfigurableApplicationContext context, int userCount, int accountsPerUser,
+                                   int elpUsers) throws Exception {
+        MongoTemplate mongoTemplate = context.getBean(MongoTemplate.class);
+        EncryptionService encryptionService = context.getBean(EncryptionService.class);
+        ElpService elpService = context.getBean(ElpService.class);
+        String prefix = "load-" + UUID.randomUUID().toString().substring(0, 8) + "-";
+        Random random = new Random(42);
+        long start = System.nanoTime();
+
+        List<UserTotp> documents = new ArrayList<>(userCount);
+        List<String> pins = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            UserTotp user = new UserTotp();
+            user.setUsername(prefix + i + "@example.com");
+            String pin = String.format("%06d", random.nextInt(1_000_000));
+            user.setPin(encryptionService.encrypt(pin));
+            user.setVersion(0L);
+            for (int a = 0; a < accountsPerUser; a++) {
+                user.getAccounts().add(new Account("Issuer" + a,
+                        encryptionService.encrypt(randomSecret(random)), "account" + a, null));
+            }
+            documents.add(user);
+            pins.add(pin);
+        }
+        for (int from = 0; from < documents.size(); from += INSERT_BATCH) {
+            mongoTemplate.insertAll(documents.subList(from, Math.min(documents.size(), from + INSERT_BATCH)));
+        }
+
+        List<User> users = new ArrayList<>(userCount);
+        List<User> withElp = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            UserTotp document = documents.get(i);
+            String username = document.getUsername();
+            User user;
+            if (i < elpUsers) {
+                ElpService.ELPResult elp = elpService.generateElpFile(document.getId(), username, username);
+                user = new User(username, StubAuthServer.tokenFor(username), pins.get(i),
+                        elp.getFilename(), elp.getFileContent());
+                withElp.add(user);
+            } else {
+                user = new User(username, StubAuthServer.tokenFor(username), pins.get(i), null, null);
+            }
+            users.add(user);
+        }
+        System.out.println(String.format("Seeded %d users x %d accounts (%d with ELP files) in %d ms",
+                userCount, accountsPerUser, withElp.size(), (System.nanoTime() - start) / 1_000_000));
+        return new LoadDataset(prefix, users, withElp);
+    }
+
+    /**
+     * The n-th user, round robin
+     */
+    public User user(long n) {
+        return users.get((int) (n % users.size()));
+    }
+
+    /**
+     * The n-th user with an ELP file, round robin
+     */
+    public User elpUser(long n) {
+        return elpUsers.get((int) (n % elpUsers.size()));
+    }
+
+    public boolean hasElpUsers() {
+        return !elpUsers.isEmpty();
+    }
+
+    /**
+     * Delete the seeded users and their ELP metadata
+     */
+    public void remove(ConfigurableApplicationContext context) {
+        MongoTemplate mongoTemplate = context.getBean(MongoTemplate.class);
+        Query seeded = new Query(Criteria.where("username").regex("^" + prefix));
+        mongoTemplate.remove(seeded, UserTotp.class);
+        mongoTemplate.remove(seeded, ElpMetadata.class);
+    }
+
+    private static String randomSecret(Random random) {
+        byte[] secret = new byte[20];
+        random.nextBytes(secret);
+        return TotpEngine.encodeBase32(secret);
+    }
+}
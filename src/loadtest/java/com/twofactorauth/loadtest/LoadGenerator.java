@@ -0,0 +1,133 @@
+package com.twofactorauth.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Closed-loop HTTP load generator: a fixed number of virtual-thread workers
+ * each send one request at a time until the duration elapses.
+ */
+public final class LoadGenerator {
+
+    private LoadGenerator() {}
+
+    /**
+     * @param requests builds the request for the n-th call overall
+     */
+    public static Result run(String name, int concurrency, Duration duration, LongFunction<HttpRequest> requests)
+            throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        LongAdder failures = new LongAdder();
+
+        try (HttpClient client = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .executor(Executors.newVirtualThreadPerTaskExecutor())
+                     .connectTimeout(Duration.ofSeconds(10))
+                     .build();
+             ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            long start = System.nanoTime();
+            long deadline = start + duration.toNanos();
+            List<Future<long[]>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(workers.submit(() -> {
+                    LatencyRecorder recorder = new LatencyRecorder();
+                    while (System.nanoTime() < deadline) {
+                        HttpRequest request = requests.apply(sequence.getAndIncrement());
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            recorder.record(System.nanoTime() - sent);
+                            statuses.computeIfAbsent(response.statusCode(), key -> new LongAdder()).increment();
+                        } catch (Exception e) {
+                            failures.increment();
+                        }
+                    }
+                    return recorder.toArray();
+                }));
+            }
+
+            LatencyRecorder all = new LatencyRecorder();
+            for (Future<long[]> future : futures) {
+                all.recordAll(future.get());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Map<Integer, Long> statusCounts = new TreeMap<>();
+            statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+            return new Result(name, concurrency, elapsed, all.toSortedArray(), statusCounts, failures.sum());
+        }
+    }
+
+    /**
+     * Outcome of one load run. Latencies are in nanoseconds, sorted.
+     */
+    public record Result(String name, int concurrency, long elapsedNanos, long[] latencies,
+                         Map<Integer, Long> statuses, long failures) {
+
+        public double throughput() {
+            return latencies.length / (elapsedNanos / 1e9);
+        }
+
+        public double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        public String summary() {
+            return String.format("%-36s conc=%-6d req=%-8d thr=%9.1f/s p50=%8.1fms p99=%8.1fms p999=%8.1fms max=%8.1fms status=%s io-failures=%d",
+                    name, concurrency, latencies.length, throughput(),
+                    percentileMillis(50), percentileMillis(99), percentileMillis(99.9), percentileMillis(100),
+                    statuses, failures);
+        }
+    }
+
+    /**
+     * Growable array of latency samples owned by one worker
+     */
+    private static final class LatencyRecorder {
+        private long[] samples = new long[1024];
+        private int size;
+
+        void record(long nanos) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = nanos;
+        }
+
+        void recordAll(long[] values) {
+            for (long value : values) {
+                record(value);
+            }
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(samples, size);
+        }
+
+        long[] toSortedArray() {
+            long[] sorted = toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.twofactorauth.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Mongo for a load run: either an existing server (--mongo-uri) or a
+ * throwaway mongod started from the local installation on a free port with
+ * a temporary data directory, which is deleted again on close.
+ *
+ * With --mongod=memory the throwaway server is mongo-java-server's in-memory
+ * backend instead, for machines without a MongoDB installation. It speaks the
+ * wire protocol but shares nothing with mongod's storage or query engine, so
+ * its latencies say nothing about Mongo itself.
+ */
+public final class MongoStandIn implements AutoCloseable {
+
+    public static final String IN_MEMORY = "memory";
+
+    private final String uri;
+    private final Process process;
+    private final Path dataDirectory;
+    private final MongoServer inMemory;
+
+    private MongoStandIn(String uri, Process process, Path dataDirectory, MongoServer inMemory) {
+        this.uri = uri;
+        this.process = process;
+        this.dataDirectory = dataDirectory;
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * @param uri existing server to use, or null to start one
+     * @param mongod mongod executable, looked up on the PATH unless absolute, or {@link #IN_MEMORY}
+     */
+    public static MongoStandIn start(String uri, String mongod) throws IOException, InterruptedException {
+        if (uri != null && !uri.isBlank()) {
+            return new MongoStandIn(uri, null, null, null);
+        }
+        if (IN_MEMORY.equals(mongod)) {
+            MongoServer server = new MongoServer(new MemoryBackend());
+            server.bind("127.0.0.1", 0);
+            InetSocketAddress address = server.getLocalAddress();
+            System.out.println("Started in-memory Mongo on port " + address.getPort());
+            return new MongoStandIn("mongodb://127.0.0.1:" + address.getPort() + "/loadtest", null, null, server);
+        }
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Path dataDirectory = Files.createTempDirectory("loadtest-mongo");
+        Process process;
+        try {
+            process = new ProcessBuilder(List.of(mongod,
+                        "--port", Integer.toString(port),
+                        "--bind_ip", "127.0.0.1",
+                        "--dbpath", dataDirectory.toString(),
+                        "--quiet"))
+                    .redirectErrorStream(true)
+                    .redirectOutput(dataDirectory.resolve("mongod.log").toFile())
+                    .start();
+        } catch (IOException e) {
+            deleteRecursively(dataDirectory);
+            throw new IOException("Could not start " + mongod + "; install MongoDB or pass --mongo-uri", e);
+        }
+
+        MongoStandIn standIn = new MongoStandIn("mongodb://127.0.0.1:" + port + "/loadtest-"
+                + UUID.randomUUID().toString().substring(0, 8), process, dataDirectory, null);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                standIn.close();
+                throw new IOException("mongod exited with status " + process.exitValue());
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 200);
+                System.out.println("Started mongod on port " + port);
+                return standIn;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        standIn.close();
+        throw new IOException("mongod did not accept connections within 30s");
+    }
+
+    public String uri() {
+        return uri;
+    }
+
+    /**
+     * Whether this stand-in owns the server, so its data can be discarded freely
+     */
+    public boolean isThrowaway() {
+        return process != null || inMemory != null;
+    }
+
+    /**
+     * Whether this is the in-memory server, which has no explain command, so
+     * the service must run with mongo.indexes.plan-check=off
+     */
+    public boolean isInMemory() {
+        return inMemory != null;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (inMemory != null) {
+            inMemory.shutdownNow();
+            return;
+        }
+        if (process == null) {
+            return;
+        }
+        process.destroy();
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+        deleteRecursively(dataDirectory);
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            System.out.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
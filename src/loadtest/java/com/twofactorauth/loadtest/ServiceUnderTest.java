@@ -0,0 +1,64 @@
+package com.twofactorauth.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.twofactorauth.TwofactorauthApplication;
+
+/**
+ * Boots the application in-process on a random port, wired to stand-in dependencies.
+ */
+public final class ServiceUnderTest implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+
+    private ServiceUnderTest(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param authServerUrl base URL of the stand-in auth server
+     * @param mongoUri Mongo connection string
+     * @param overrides extra properties, applied last
+     */
+    public static ServiceUnderTest start(String authServerUrl, String mongoUri, Map<String, String> overrides) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.application.name", "twofactorauth-loadtest");
+        properties.put("server.port", "0");
+        properties.put("spring.thymeleaf.cache", "true");
+        properties.put("spring.data.mongodb.uri", mongoUri);
+        properties.put("encryption.secret", "loadtest-encryption-secret");
+        properties.put("elp.encryption.key", "loadtest-elp-encryption-key");
+        properties.put("elp.hmac.key", "loadtest-elp-hmac-key");
+        properties.put("admin.token", "loadtest-admin-token");
+        properties.put("api.auth.validateToken", authServerUrl + "/api/v1/auth/validateToken");
+        properties.put("api.admin.generateJwtToken", authServerUrl + "/api/v1/admin/generateJwtToken");
+        properties.put("auth.server.url", authServerUrl);
+        properties.putAll(overrides);
+
+        // Command-line arguments outrank the ${ENV} placeholders in application.properties
+        List<String> args = new ArrayList<>();
+        properties.forEach((key, value) -> args.add("--" + key + "=" + value));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(TwofactorauthApplication.class)
+                .run(args.toArray(String[]::new));
+        return new ServiceUnderTest(context);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    public ConfigurableApplicationContext context() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,149 @@
+package com.twofactorauth.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the remote auth server.
+ *
+ * Tokens of the form "valid-&lt;email&gt;" are accepted and resolve to that
+ * email; every other token is rejected with 401. Every response is delayed
+ * by the configured latency, and the configured fraction of requests fails
+ * with 503 instead, as an overloaded auth server would.
+ */
+public final class StubAuthServer implements AutoCloseable {
+
+    public static final String VALID_TOKEN_PREFIX = "valid-";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final LongAdder injectedErrors = new LongAdder();
+
+    private StubAuthServer(HttpServer server, ExecutorService executor, long latencyMillis, double errorRate) {
+        this.server = server;
+        this.executor = executor;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+    }
+
+    public static StubAuthServer start(long latencyMillis) throws IOException {
+        return start(latencyMillis, 0);
+    }
+
+    /**
+     * @param errorRate fraction of requests, 0 to 1, answered with 503 after the latency
+     */
+    public static StubAuthServer start(long latencyMillis, double errorRate) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8192);
+        // One virtual thread per exchange so the stub itself never queues
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+
+        StubAuthServer stub = new StubAuthServer(server, executor, latencyMillis, errorRate);
+        server.createContext("/api/v1/auth/validateToken", stub::validateToken);
+        server.createContext("/api/v1/admin/generateJwtToken/", stub::generateJwtToken);
+        server.createContext("/api/v1/auth/byEmailUsername/", stub::userByEmailOrUsername);
+        server.start();
+        return stub;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public static String tokenFor(String email) {
+        return VALID_TOKEN_PREFIX + email;
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    private void validateToken(HttpExchange exchange) throws IOException {
+        delay();
+        if (injectError(exchange)) {
+            return;
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        String token = header != null && header.startsWith("Bearer ") ? header.substring(7) : "";
+        if (!token.startsWith(VALID_TOKEN_PREFIX)) {
+            respond(exchange, 401, "{\"error\":\"Invalid token\"}");
+            return;
+        }
+        respond(exchange, 200, "{\"email\":\"" + token.substring(VALID_TOKEN_PREFIX.length()) + "\"}");
+    }
+
+    private void generateJwtToken(HttpExchange exchange) throws IOException {
+        delay();
+        if (injectError(exchange)) {
+            return;
+        }
+        String user = lastPathSegment(exchange);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        respondRaw(exchange, 200, tokenFor(user));
+    }
+
+    private void userByEmailOrUsername(HttpExchange exchange) throws IOException {
+        delay();
+        if (injectError(exchange)) {
+            return;
+        }
+        String user = lastPathSegment(exchange);
+        respond(exchange, 200, "{\"id\":\"" + user + "\",\"email\":\"" + user + "\",\"username\":\"" + user + "\"}");
+    }
+
+    private void delay() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean injectError(HttpExchange exchange) throws IOException {
+        if (errorRate <= 0 || ThreadLocalRandom.current().nextDouble() >= errorRate) {
+            return false;
+        }
+        injectedErrors.increment();
+        respond(exchange, 503, "{\"error\":\"Injected failure\"}");
+        return true;
+    }
+
+    private static String lastPathSegment(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        respondRaw(exchange, status, json);
+    }
+
+    private static void respondRaw(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
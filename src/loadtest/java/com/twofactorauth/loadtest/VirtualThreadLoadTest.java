@@ -0,0 +1,85 @@
+package com.twofactorauth.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares platform-thread and virtual-thread request handling while every
+ * request waits on a slow auth server.
+ *
+ * Each request carries a unique token the stub rejects after the configured
+ * latency, so the path is: Tomcat thread -> JwtService remote call (slow) -> 401.
+ * Nothing is cached and Mongo is never touched, which isolates the cost of
+ * blocking a request thread on the auth server.
+ *
+ * Options: --latency-ms=500 --concurrency=2000 --duration-s=20
+ */
+public final class VirtualThreadLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        long latencyMillis = option(args, "latency-ms", 500);
+        int concurrency = (int) option(args, "concurrency", 2000);
+        Duration duration = Duration.ofSeconds(option(args, "duration-s", 20));
+
+        List<LoadGenerator.Result> results = new ArrayList<>();
+        try (StubAuthServer authServer = StubAuthServer.start(latencyMillis)) {
+            for (boolean virtualThreads : new boolean[] { false, true }) {
+                Map<String, String> overrides = Map.of(
+                    "spring.threads.virtual.enabled", Boolean.toString(virtualThreads),
+                    // Let the outbound pool admit the full offered concurrency
+                    "auth.http.max-connections", Integer.toString(concurrency),
+                    "auth.http.max-connections-per-route", Integer.toString(concurrency),
+                    // Compare the thread models, not the breaker: under 2000 concurrent calls the
+                    // stub answers slower than auth.resilience.slow-call-ms and the breaker opens
+                    "auth.resilience.enabled", "false",
+                    "auth.http.pool-acquire-timeout-ms", "60000",
+                    "auth.http.read-timeout-ms", Long.toString(latencyMillis + 30000),
+                    // No Mongo is needed for this run
+                    "mongo.indexes.create", "false",
+                    "mongo.indexes.plan-check", "off",
+                    "elp.filter.enabled", "false",
+                    // All load comes from one address
+                    "ratelimit.enabled", "false"
+                );
+                try (ServiceUnderTest service = ServiceUnderTest.start(
+                        authServer.baseUrl(), "mongodb://127.0.0.1:27017/loadtest", overrides)) {
+                    String url = service.baseUrl() + "/current-codes";
+                    String name = (virtualThreads ? "virtual" : "platform") + " threads, auth " + latencyMillis + "ms";
+
+                    // Short warm-up so JIT and connection setup don't skew the run
+                    LoadGenerator.run("warm-up", Math.min(concurrency, 100), Duration.ofSeconds(3),
+                            n -> request(url, "warmup-" + n));
+                    results.add(LoadGenerator.run(name, concurrency, duration, n -> request(url, "reject-" + n)));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("=== Slow auth server load test ===");
+        results.forEach(result -> System.out.println(result.summary()));
+        // Boot's Netty event loop for the reactive Mongo client outlives the closed context
+        System.exit(0);
+    }
+
+    private static HttpRequest request(String url, String token) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(120))
+                .GET()
+                .build();
+    }
+
+    static long option(String[] args, String name, long defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return Long.parseLong(arg.substring(prefix.length()));
+            }
+        }
+        return defaultValue;
+    }
+}
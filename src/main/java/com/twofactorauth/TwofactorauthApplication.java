@@ -2,10 +2,14 @@ package com.twofactorauth;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import com.twofactorauth.config.AotRuntimeHints;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 @SpringBootApplication
+@ImportRuntimeHints(AotRuntimeHints.class)
 public class TwofactorauthApplication {
 	public static void main(String[] args) {
 		
@@ -0,0 +1,52 @@
+package com.twofactorauth.config;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.model.ElpMetadata;
+import com.twofactorauth.model.UserDTO;
+import com.twofactorauth.model.UserIdView;
+import com.twofactorauth.model.UserPinView;
+import com.twofactorauth.model.UserTotp;
+
+/**
+ * Reflection hints for the types Mongo mapping and Jackson bind reflectively,
+ * recorded by AOT processing (the aot Maven profile).
+ *
+ * The controllers' request DTOs and the auth server response type are
+ * package-private, so they are named rather than referenced.
+ */
+public class AotRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final String[] REQUEST_TYPES = {
+        "com.twofactorauth.controller.AccountController$AccountRequest",
+        "com.twofactorauth.controller.AccountController$VerifyCodeRequest",
+        "com.twofactorauth.controller.PinController$PinRequest",
+        "com.twofactorauth.controller.PinController$UpdatePinRequest",
+        "com.twofactorauth.controller.ElpController$BulkRequest",
+        "com.twofactorauth.controller.ElpController$PinRequest",
+        "com.twofactorauth.service.TokenResponse",
+        "com.twofactorauth.service.ElpService$ElpData"
+    };
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                UserTotp.class, Account.class, ElpMetadata.class, UserDTO.class);
+
+        // Closed projections are implemented with JDK proxies
+        hints.reflection().registerType(UserIdView.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+        hints.reflection().registerType(UserPinView.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+
+        for (String type : REQUEST_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type),
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_DECLARED_METHODS,
+                    MemberCategory.DECLARED_FIELDS);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.twofactorauth.config;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Shared outbound HTTP client for calls to the auth server.
+ *
+ * HTTP_1_1 (default) uses a pooled Apache HttpClient with keep-alive,
+ * per-route limits and pool statistics. HTTP_2 uses the JDK HttpClient,
+ * which multiplexes requests over a single connection when the server
+ * negotiates h2 and otherwise falls back to pooled HTTP/1.1.
+ *
+ * With spring.threads.virtual.enabled the calling request thread is already
+ * virtual and blocks cheaply; the pool limits then become the effective cap
+ * on concurrent auth calls, so size them for the expected concurrency.
+ */
+@Configuration
+public class AuthHttpClientConfig {
+
+    @Value("${auth.http.version:HTTP_1_1}")
+    private String httpVersion;
+
+    @Value("${auth.http.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${auth.http.max-connections-per-route:50}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${auth.http.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+
+    @Value("${auth.http.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${auth.http.pool-acquire-timeout-ms:1000}")
+    private long poolAcquireTimeoutMs;
+
+    @Value("${auth.http.idle-eviction-seconds:30}")
+    private long idleEvictionSeconds;
+
+    @Value("${auth.http.connection-ttl-seconds:300}")
+    private long connectionTtlSeconds;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager authConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setTimeToLive(TimeValue.ofSeconds(connectionTtlSeconds))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient authApacheHttpClient(PoolingHttpClientConnectionManager authConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(authConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolAcquireTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictionSeconds))
+                .build();
+    }
+
+    @Bean
+    public RestTemplate authRestTemplate(CloseableHttpClient authApacheHttpClient) {
+        return new RestTemplate(requestFactory(authApacheHttpClient));
+    }
+
+    public boolean isHttp2() {
+        return "HTTP_2".equalsIgnoreCase(httpVersion);
+    }
+
+    private ClientHttpRequestFactory requestFactory(CloseableHttpClient apacheClient) {
+        if (isHttp2()) {
+            System.out.println("Auth server client: JDK HttpClient (HTTP/2 preferred)");
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(connectTimeoutMs));
+            if (virtualThreads) {
+                builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+            }
+            HttpClient jdkClient = builder.build();
+            JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(jdkClient);
+            factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+            return factory;
+        }
+        System.out.println("Auth server client: pooled Apache HttpClient (max " + maxConnections
+                + ", per route " + maxConnectionsPerRoute + ")");
+        return new HttpComponentsClientHttpRequestFactory(apacheClient);
+    }
+}
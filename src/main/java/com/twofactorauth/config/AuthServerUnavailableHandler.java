@@ -0,0 +1,27 @@
+package com.twofactorauth.config;
+
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.twofactorauth.service.AuthServerUnavailableException;
+
+/**
+ * Fast-fail answer, on either stack, for requests that need the auth server
+ * while its circuit breaker is open or its bulkhead is full.
+ */
+@RestControllerAdvice
+public class AuthServerUnavailableHandler {
+
+    @ExceptionHandler(AuthServerUnavailableException.class)
+    public ResponseEntity<Object> authServerUnavailable(AuthServerUnavailableException e) {
+        // Not logged per request: the breaker logs its transitions and the rejections are metered
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .body(Map.of("error", "Authentication service temporarily unavailable. Please try again later."));
+    }
+}
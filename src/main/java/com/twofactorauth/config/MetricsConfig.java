@@ -0,0 +1,135 @@
+package com.twofactorauth.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.twofactorauth.service.AuthHttpPoolMonitor;
+import com.twofactorauth.service.AuthServerGuard;
+import com.twofactorauth.service.CodeStreamService;
+import com.twofactorauth.service.ElpMetadataLookup;
+import com.twofactorauth.service.JwtService;
+import com.twofactorauth.service.RateLimiter;
+import com.twofactorauth.service.ReactiveCodeStreamService;
+import com.twofactorauth.service.ReactiveJwtService;
+import com.twofactorauth.service.SingleFlight;
+import com.twofactorauth.service.TokenValidationCache;
+import com.twofactorauth.service.UserFetchService;
+
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the counters the caches, pools and limiters already keep as
+ * Micrometer gauges and counters, next to the timers in ServiceMetrics.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder tokenValidationCacheMetrics(TokenValidationCache cache) {
+        return registry -> {
+            Gauge.builder("securetotp.token.cache.size", cache, TokenValidationCache::size).register(registry);
+            FunctionCounter.builder("securetotp.token.cache.requests", cache, TokenValidationCache::getHits)
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("securetotp.token.cache.requests", cache, TokenValidationCache::getMisses)
+                    .tag("result", "miss").register(registry);
+            FunctionCounter.builder("securetotp.token.cache.evictions", cache, TokenValidationCache::getEvictions)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder authHttpPoolMetrics(AuthHttpPoolMonitor pool) {
+        return registry -> {
+            Gauge.builder("securetotp.auth.pool.connections", pool, AuthHttpPoolMonitor::getLeased)
+                    .tag("state", "leased").register(registry);
+            Gauge.builder("securetotp.auth.pool.connections", pool, AuthHttpPoolMonitor::getAvailable)
+                    .tag("state", "available").register(registry);
+            Gauge.builder("securetotp.auth.pool.pending", pool, AuthHttpPoolMonitor::getPending).register(registry);
+            Gauge.builder("securetotp.auth.pool.max", pool, AuthHttpPoolMonitor::getMax).register(registry);
+        };
+    }
+
+    // resilience4j.circuitbreaker.* (state, calls by outcome, failure and slow call rates)
+    // and resilience4j.bulkhead.* (available and max concurrent calls)
+    @Bean
+    public MeterBinder authServerGuardMetrics(AuthServerGuard guard) {
+        return registry -> {
+            TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(guard.getCircuitBreakers()).bindTo(registry);
+            TaggedBulkheadMetrics.ofBulkheadRegistry(guard.getBulkheads()).bindTo(registry);
+        };
+    }
+
+    // ReactiveJwtService only exists on the reactive stack
+    @Bean
+    public MeterBinder singleFlightMetrics(JwtService jwtService, UserFetchService userFetchService,
+                                           ObjectProvider<ReactiveJwtService> reactiveJwtService) {
+        return registry -> {
+            bindSingleFlight(registry, "validate-token", jwtService.getTokenLookups());
+            bindSingleFlight(registry, "fetch-user", userFetchService.getUserLookups());
+            reactiveJwtService.ifAvailable(service ->
+                    bindSingleFlight(registry, "validate-token-reactive", service.getTokenLookups()));
+        };
+    }
+
+    private static void bindSingleFlight(MeterRegistry registry, String operation, SingleFlight<?, ?> flight) {
+        FunctionCounter.builder("securetotp.singleflight.coalesced", flight, SingleFlight::getCoalesced)
+                .description("Calls that shared an identical call already in flight")
+                .tag("operation", operation).register(registry);
+        Gauge.builder("securetotp.singleflight.in.flight", flight, SingleFlight::getInFlight)
+                .tag("operation", operation).register(registry);
+    }
+
+    @Bean
+    public MeterBinder rateLimiterMetrics(RateLimiter rateLimiter) {
+        return registry -> {
+            for (RateLimiter.Kind kind : RateLimiter.Kind.values()) {
+                FunctionCounter.builder("securetotp.ratelimit.rejections", rateLimiter, r -> r.getRejections(kind))
+                        .tag("kind", kind.name().toLowerCase())
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder elpMetadataLookupMetrics(ElpMetadataLookup lookup) {
+        return registry -> {
+            FunctionCounter.builder("securetotp.elp.lookups", lookup, ElpMetadataLookup::getFilterRejections)
+                    .tag("result", "filtered").register(registry);
+            FunctionCounter.builder("securetotp.elp.lookups", lookup, ElpMetadataLookup::getCacheHits)
+                    .tag("result", "cached").register(registry);
+            FunctionCounter.builder("securetotp.elp.lookups", lookup, ElpMetadataLookup::getRepositoryLookups)
+                    .tag("result", "repository").register(registry);
+        };
+    }
+
+    // The SSE stream service only exists on the servlet stack
+    @Bean
+    public MeterBinder codeStreamMetrics(ObjectProvider<CodeStreamService> codeStreams,
+                                         ObjectProvider<ReactiveCodeStreamService> reactiveCodeStreams) {
+        return registry -> {
+            codeStreams.ifAvailable(streams -> {
+                Gauge.builder("securetotp.code.streams.active", streams, CodeStreamService::getActiveStreams)
+                        .register(registry);
+                FunctionCounter.builder("securetotp.code.streams.evictions", streams,
+                        CodeStreamService::getSlowConsumerEvictions).register(registry);
+                FunctionCounter.builder("securetotp.code.streams.rejected", streams,
+                        CodeStreamService::getRejectedStreams).register(registry);
+            });
+            // Same meters on the reactive stack; only one of the two services exists
+            reactiveCodeStreams.ifAvailable(streams -> {
+                Gauge.builder("securetotp.code.streams.active", streams, ReactiveCodeStreamService::getActiveStreams)
+                        .register(registry);
+                FunctionCounter.builder("securetotp.code.streams.evictions", streams,
+                        ReactiveCodeStreamService::getSlowConsumerEvictions).register(registry);
+                FunctionCounter.builder("securetotp.code.streams.rejected", streams,
+                        ReactiveCodeStreamService::getRejectedStreams).register(registry);
+            });
+        };
+    }
+}
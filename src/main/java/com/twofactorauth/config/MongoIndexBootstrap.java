@@ -0,0 +1,129 @@
+package com.twofactorauth.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Declares the indexes the repositories rely on and checks the hot queries use them.
+ *
+ * Runs during context refresh, before the web server accepts requests.
+ * Index creation is idempotent. Each hot query is then run through explain();
+ * if its winning plan contains a COLLSCAN the bootstrap logs a warning or,
+ * with mongo.indexes.plan-check=fail, aborts startup.
+ *
+ * Set mongo.indexes.plan-check=fail in test and load-test runs so a new query
+ * shape without an index is caught before it reaches production.
+ */
+@Component
+public class MongoIndexBootstrap {
+
+    static final String USER_TOTP = "user_totp";
+    static final String ELP_METADATA = "elp_metadata";
+
+    @Value("${mongo.indexes.create:true}")
+    private boolean createIndexes;
+
+    /** warn, fail or off */
+    @Value("${mongo.indexes.plan-check:warn}")
+    private String planCheck;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    public void bootstrap() {
+        if (createIndexes) {
+            // Name matches what @Indexed would generate, so existing indexes are reused
+            ensureIndex(ELP_METADATA, "elpId", "elpId");
+            ensureIndex(USER_TOTP, "username", "username_unique");
+        }
+        if (!"off".equalsIgnoreCase(planCheck)) {
+            verifyQueryPlans();
+        }
+    }
+
+    private void ensureIndex(String collection, String field, String name) {
+        try {
+            mongoTemplate.getCollection(collection)
+                    .createIndex(Indexes.ascending(field), new IndexOptions().unique(true).name(name));
+            System.out.println("Index ready: " + collection + "." + name);
+        } catch (MongoException e) {
+            // Typically duplicate values already stored, or the same keys under another name
+            handle("Could not create unique index " + collection + "." + name + ": " + e.getMessage());
+        }
+    }
+
+    private void verifyQueryPlans() {
+        // Same filter shapes the repositories send; the values never match real data
+        List<HotQuery> hotQueries = List.of(
+            new HotQuery(USER_TOTP, "findByUsername / pushAccount / pullAccount",
+                    new Document("username", "__plan_check__")),
+            new HotQuery(USER_TOTP, "findIdentityById / compareAndSetPin",
+                    new Document("_id", new ObjectId()).append("pinVersion", 0L)),
+            new HotQuery(ELP_METADATA, "findByElpId",
+                    new Document("elpId", "__plan_check__"))
+        );
+
+        List<String> collectionScans = new ArrayList<>();
+        for (HotQuery query : hotQueries) {
+            Document plan = mongoTemplate.getCollection(query.collection()).find(query.filter()).explain();
+            if (containsStage(plan.get("queryPlanner"), "COLLSCAN")) {
+                collectionScans.add(query.collection() + " " + query.name());
+            }
+        }
+
+        if (collectionScans.isEmpty()) {
+            System.out.println("Query plans verified: " + hotQueries.size() + " hot queries use an index");
+        } else {
+            handle("Hot queries would scan the whole collection: " + collectionScans);
+        }
+    }
+
+    private void handle(String problem) {
+        if ("fail".equalsIgnoreCase(planCheck)) {
+            throw new IllegalStateException(problem);
+        }
+        System.out.println("WARNING: " + problem);
+    }
+
+    /**
+     * Searches an explain() document for a plan stage. The plan tree shape
+     * differs between server versions and sharded clusters, so every nested
+     * document and array is visited.
+     */
+    static boolean containsStage(Object node, String stage) {
+        if (node instanceof Document document) {
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            for (Object value : document.values()) {
+                if (containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List<?> list) {
+            for (Object value : list) {
+                if (containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private record HotQuery(String collection, String name, Bson filter) {}
+}
@@ -0,0 +1,65 @@
+package com.twofactorauth.config;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import com.twofactorauth.service.RateLimiter;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFlux counterpart of {@link RateLimitInterceptor}.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class RateLimitWebFilter implements WebFilter {
+
+    private static final List<PathPattern> PATTERNS = Arrays.stream(WebConfig.RATE_LIMITED_PATHS)
+            .map(PathPatternParser.defaultInstance::parse)
+            .toList();
+
+    private static final byte[] BODY =
+            "{\"error\":\"Too many requests. Please try again later.\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (exchange.getRequest().getMethod() == HttpMethod.OPTIONS
+                || PATTERNS.stream().noneMatch(pattern -> pattern.matches(exchange.getRequest().getPath().pathWithinApplication()))) {
+            return chain.filter(exchange);
+        }
+
+        InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+        String address = remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.IP, address);
+        if (retryAfter == 0) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        DataBuffer buffer = response.bufferFactory().wrap(BODY);
+        return response.writeWith(Mono.just(buffer));
+    }
+}
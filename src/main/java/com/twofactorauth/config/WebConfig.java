@@ -1,26 +1,50 @@
 package com.twofactorauth.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WebConfig implements WebMvcConfigurer {
 
+    static final String[] ALLOWED_ORIGINS = {
+        "http://localhost:5500", 
+        "http://127.0.0.1:5500", 
+        "https://bristohq.github.io", 
+        "https://securetotp.netlify.app",
+        "https://twofactor-securetotp.loca.lt"
+    };
+
+    static final String[] EXPOSED_HEADERS = { "Authorization", "ETag", "X-Code-Valid-For", "Retry-After", "X-Bulk-Job-Id" };
+
+    // Endpoints behind the per-IP rate limit. The code stream is excluded: it
+    // is one long-lived request with its own per-user stream cap.
+    static final String[] RATE_LIMITED_PATHS = {
+        "/get-pin", "/create-pin", "/verify-pin", "/update-pin",
+        "/add-account", "/import-accounts", "/export-accounts", "/restore-accounts", "/accounts", "/account/**", "/current-codes", "/verify-code",
+        "/api/v1/elp/**"
+    };
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(rateLimitInterceptor).addPathPatterns(RATE_LIMITED_PATHS);
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
-                .allowedOrigins(
-                    "http://localhost:5500", 
-                    "http://127.0.0.1:5500", 
-                    "https://bristohq.github.io", 
-                    "https://securetotp.netlify.app",
-                    "https://twofactor-securetotp.loca.lt"
-                )
+                .allowedOrigins(ALLOWED_ORIGINS)
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Authorization")
+                .exposedHeaders(EXPOSED_HEADERS)
                 .allowCredentials(true)
                 .maxAge(3600);
     }
-}
\ No newline at end of file
+}
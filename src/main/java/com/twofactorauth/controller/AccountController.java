@@ -1,26 +1,56 @@
 package com.twofactorauth.controller;
 
 import com.twofactorauth.model.Account;
-import com.twofactorauth.model.UserTotp;
 import com.twofactorauth.repo.UserTotpRepository;
+import com.twofactorauth.service.AccountBackupService;
+import com.twofactorauth.service.AccountCodeService;
+import com.twofactorauth.service.AccountImportService;
+import com.twofactorauth.service.CodeStreamService;
+import com.twofactorauth.service.CodeVerificationService;
 import com.twofactorauth.service.EncryptionService;
 import com.twofactorauth.service.JwtService;
-import com.twofactorauth.service.TotpService;
+import com.twofactorauth.service.RateLimiter;
+import com.twofactorauth.service.ServiceMetrics;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+
+import javax.crypto.AEADBadTagException;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class AccountController {
 
+    /** Seconds until the returned codes roll over to the next time step */
+    public static final String CODE_VALID_FOR_HEADER = "X-Code-Valid-For";
+
+    /** Passphrase protecting an account backup, for export and restore */
+    public static final String BACKUP_PASSPHRASE_HEADER = "X-Backup-Passphrase";
+
+    static final String BACKUP_FILENAME = "securetotp-backup.stotp";
+
+    static final Map<String, String> BACKUP_REJECTED = Map.of("error", "Wrong passphrase or damaged backup");
+
     @Autowired
     private UserTotpRepository userTotpRepository;
     
@@ -30,6 +60,27 @@ public class AccountController {
     @Autowired
     private EncryptionService encryptionService;
 
+    @Autowired
+    private AccountCodeService accountCodeService;
+
+    @Autowired
+    private CodeStreamService codeStreamService;
+
+    @Autowired
+    private CodeVerificationService codeVerificationService;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private AccountImportService accountImportService;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Autowired
+    private AccountBackupService accountBackupService;
+
     @PostMapping("/add-account")
     public ResponseEntity<?> addAccount(
             @RequestBody AccountRequest accountRequest,
@@ -43,21 +94,6 @@ public class AccountController {
         // Sanitize secret (remove spaces and convert to uppercase)
         String secret = accountRequest.getSecret().replace(" ", "").toUpperCase();
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
-        UserTotp userTotp;
-        
-        if (userOptional.isEmpty()) {
-            // Create new user if not exists
-            userTotp = new UserTotp();
-            userTotp.setUsername(username);
-            userTotp.setAccounts(new ArrayList<>());
-        } else {
-            userTotp = userOptional.get();
-            if (userTotp.getAccounts() == null) {
-                userTotp.setAccounts(new ArrayList<>());
-            }
-        }
-        
         // Create new account
         Account account = new Account();
         account.setNickname(accountRequest.getNickname());
@@ -74,8 +110,9 @@ public class AccountController {
 
         System.out.println("Adding account: " + account.getIssuer() + " (" + account.getNickname() + ")");
         
-        userTotp.getAccounts().add(account);
-        userTotpRepository.save(userTotp);
+        // Single $push upsert: concurrent adds for the same user cannot overwrite each other
+        userTotpRepository.pushAccount(username, account);
+        accountCodeService.invalidate(username);
         
         return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
             "success", true, 
@@ -83,40 +120,138 @@ public class AccountController {
         ));
     }
     
+    /**
+     * Import many accounts at once. The body is text, one otpauth:// or
+     * otpauth-migration:// URI per line, and is parsed as it streams in.
+     */
+    @PostMapping("/import-accounts")
+    public ResponseEntity<?> importAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            HttpServletRequest request) throws IOException {
+
+        String username = extractUsernameFromToken(authHeader);
+        if (username == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
+        }
+
+        AccountImportService.ImportBatch batch;
+        try (Reader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            batch = accountImportService.read(reader);
+        }
+
+        List<Account> accounts = accountImportService.prepare(batch, userTotpRepository.findAccountLabels(username));
+        if (!accounts.isEmpty()) {
+            // One $push $each for the whole import instead of one round trip per account
+            userTotpRepository.pushAccounts(username, accounts);
+            accountCodeService.invalidate(username);
+        }
+        System.out.println("Imported " + accounts.size() + " accounts for " + username);
+
+        return ResponseEntity.ok(batch.toBody());
+    }
+    
+    /**
+     * Download all accounts encrypted under a key derived from the passphrase.
+     * Accounts are read through a cursor and written in encrypted chunks.
+     */
+    @PostMapping("/export-accounts")
+    public ResponseEntity<StreamingResponseBody> exportAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = BACKUP_PASSPHRASE_HEADER, required = false) String passphrase) {
+
+        String username = extractUsernameFromToken(authHeader);
+        if (username == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token");
+        }
+        String problem = passphraseProblem(passphrase);
+        if (problem != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, problem);
+        }
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.BACKUP, username);
+        if (retryAfter > 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                    .build();
+        }
+
+        AccountBackupService.BackupWriter writer;
+        try {
+            writer = accountBackupService.newWriter(passphrase.toCharArray());
+        } catch (GeneralSecurityException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not derive backup key");
+        }
+
+        StreamingResponseBody body = out -> accountBackupService.writeBackup(username, writer, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + BACKUP_FILENAME + "\"")
+                .body(body);
+    }
+
+    /**
+     * Restore accounts from an export. The backup is decrypted and stored
+     * chunk by chunk, with one $push $each at the end; existing accounts are
+     * reported as duplicates.
+     */
+    @PostMapping("/restore-accounts")
+    public ResponseEntity<?> restoreAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = BACKUP_PASSPHRASE_HEADER, required = false) String passphrase,
+            HttpServletRequest request) {
+
+        String username = extractUsernameFromToken(authHeader);
+        if (username == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
+        }
+        String problem = passphraseProblem(passphrase);
+        if (problem != null) {
+            return ResponseEntity.badRequest().body(Map.of("error", problem));
+        }
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.BACKUP, username);
+        if (retryAfter > 0) {
+            return RateLimiter.tooManyRequests(retryAfter);
+        }
+
+        try (InputStream in = request.getInputStream()) {
+            AccountImportService.ImportBatch batch = accountBackupService.restore(username, passphrase.toCharArray(), in);
+            accountCodeService.invalidate(username);
+            return ResponseEntity.ok(batch.toBody());
+        } catch (AEADBadTagException e) {
+            return ResponseEntity.badRequest().body(BACKUP_REJECTED);
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid backup: " + e.getMessage()));
+        } catch (GeneralSecurityException e) {
+            System.out.println("Backup restore failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Could not restore backup"));
+        }
+    }
+
+    static String passphraseProblem(String passphrase) {
+        if (passphrase == null || passphrase.length() < AccountBackupService.MIN_PASSPHRASE_LENGTH) {
+            return "Passphrase must be at least " + AccountBackupService.MIN_PASSPHRASE_LENGTH + " characters";
+        }
+        return null;
+    }
+    
     @GetMapping("/accounts")
-    public ResponseEntity<?> getAccounts(@RequestHeader("Authorization") String authHeader) {
+    public ResponseEntity<?> getAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         String username = extractUsernameFromToken(authHeader);
         if (username == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
-        if (userOptional.isEmpty() || userOptional.get().getAccounts() == null) {
-            return ResponseEntity.ok(new ArrayList<>());
+        AccountCodeService.CodeSet codeSet = accountCodeService.getCurrentCodes(username);
+        String etag = "\"a-" + codeSet.etag() + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return notModified(etag, codeSet);
         }
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        
-        for (Account account : userOptional.get().getAccounts()) {
-            try {
-                // Decrypt the secret before use
-                String decryptedSecret = encryptionService.decrypt(account.getSecret());
-                int code = TotpService.generateTOTP(decryptedSecret, System.currentTimeMillis());
-                
-                Map<String, Object> accountData = new HashMap<>();
-                accountData.put("nickname", account.getNickname());
-                accountData.put("issuer", account.getIssuer());
-                accountData.put("code", String.format("%06d", code));
-                
-                result.add(accountData);
-            } catch (Exception e) {
-                // Skip accounts with invalid secrets
-                System.out.println("Error processing account: " + e.getMessage());
-                continue;
-            }
-        }
+        List<Map<String, Object>> result = AccountCodeService.toAccountsBody(codeSet.codes());
+        serviceMetrics.accountsReturned("/accounts", result.size());
         
-        return ResponseEntity.ok(result);
+        return withCodeHeaders(ResponseEntity.ok(), etag, codeSet).body(result);
     }
     
     @DeleteMapping("/account/{issuer}/{nickname}")
@@ -130,21 +265,10 @@ public class AccountController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
-        if (userOptional.isEmpty() || userOptional.get().getAccounts() == null) {
+        if (!userTotpRepository.pullAccount(username, issuer, nickname)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No accounts found"));
         }
-        
-        UserTotp user = userOptional.get();
-        List<Account> accounts = user.getAccounts();
-
-        // Use removeIf which is safe for concurrent modification
-        // Now checking both issuer and nickname for more precise deletion
-        accounts.removeIf(account -> 
-            account.getNickname().equals(nickname) && 
-            account.getIssuer().equals(issuer)
-        );
-        userTotpRepository.save(user);
+        accountCodeService.invalidate(username);
         
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -153,43 +277,95 @@ public class AccountController {
     }
     
     @GetMapping("/current-codes")
-    public ResponseEntity<?> getCurrentCodes(@RequestHeader("Authorization") String authHeader) {
+    public ResponseEntity<?> getCurrentCodes(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         String username = extractUsernameFromToken(authHeader);
         if (username == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
-        if (userOptional.isEmpty() || userOptional.get().getAccounts() == null || userOptional.get().getAccounts().isEmpty()) {
+        AccountCodeService.CodeSet codeSet = accountCodeService.getCurrentCodes(username);
+        // 404 only without accounts; if every secret failed to decode the answer is still 200 []
+        if (codeSet.accounts() == 0) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No accounts found"));
         }
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        
-        for (Account account : userOptional.get().getAccounts()) {
-            try {
-                // Decrypt the secret before generating code
-                String decryptedSecret = encryptionService.decrypt(account.getSecret());
-                int code = TotpService.generateTOTP(decryptedSecret, System.currentTimeMillis());
-                
-                Map<String, Object> codeData = new HashMap<>();
-                codeData.put("key", account.getIssuer() + " (" + account.getNickname() + ")");
-                codeData.put("code", String.format("%06d", code));
-                codeData.put("issuer", account.getIssuer());
-                codeData.put("nickname", account.getNickname());
-                codeData.put("logoUrl", account.getLogoUrl());
-                
-                result.add(codeData);
-                
-            } catch (Exception e) {
-                // Skip accounts with invalid secrets
-                System.out.println("Error generating code: " + e.getMessage());
-                continue;
-            }
+        String etag = "\"c-" + codeSet.etag() + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return notModified(etag, codeSet);
         }
+        
+        List<Map<String, Object>> result = AccountCodeService.toCurrentCodesBody(codeSet.codes());
         System.out.println(result.size() + " accounts found for user: " + username);
+        serviceMetrics.accountsReturned("/current-codes", result.size());
         
-        return ResponseEntity.ok(result);
+        return withCodeHeaders(ResponseEntity.ok(), etag, codeSet).body(result);
+    }
+    
+    /**
+     * Server-Sent Events stream of the same payload as /current-codes,
+     * pushed once per time step. Emits "codes" events plus heartbeat comments.
+     */
+    @GetMapping(value = "/current-codes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamCurrentCodes(@RequestHeader("Authorization") String authHeader) {
+        String username = extractUsernameFromToken(authHeader);
+        if (username == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token");
+        }
+        
+        SseEmitter emitter = codeStreamService.subscribe(username, authHeader.substring(7));
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many open code streams");
+        }
+        return emitter;
+    }
+    
+    /**
+     * Check a code for one of the user's accounts, allowing for clock drift
+     * within the configured window. Each code is accepted only once.
+     */
+    @PostMapping("/verify-code")
+    public ResponseEntity<?> verifyCode(
+            @RequestBody VerifyCodeRequest request,
+            @RequestHeader("Authorization") String authHeader) {
+        String username = extractUsernameFromToken(authHeader);
+        if (username == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
+        }
+        
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.VERIFY_CODE, username);
+        if (retryAfter > 0) {
+            return RateLimiter.tooManyRequests(retryAfter);
+        }
+        
+        CodeVerificationService.Result result = codeVerificationService.verify(
+                username, request.getIssuer(), request.getNickname(), request.getCode());
+        if (result == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Account not found"));
+        }
+        return ResponseEntity.ok(verifyCodeBody(result));
+    }
+    
+    static Map<String, Object> verifyCodeBody(CodeVerificationService.Result result) {
+        if (result == CodeVerificationService.Result.REPLAYED) {
+            return Map.of("verified", false, "error", "Code already used");
+        }
+        return Map.of("verified", result.isValid());
+    }
+    
+    // Clients must revalidate (no-cache) so an added or removed account shows up
+    // immediately; unchanged code sets are answered with 304 via the ETag.
+    static ResponseEntity.BodyBuilder withCodeHeaders(
+            ResponseEntity.BodyBuilder builder, String etag, AccountCodeService.CodeSet codeSet) {
+        return builder
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(CODE_VALID_FOR_HEADER, String.valueOf(codeSet.validForSeconds()));
+    }
+    
+    static <T> ResponseEntity<T> notModified(String etag, AccountCodeService.CodeSet codeSet) {
+        return withCodeHeaders(ResponseEntity.status(HttpStatus.NOT_MODIFIED), etag, codeSet).build();
     }
     
     private String extractUsernameFromToken(String authHeader) {
@@ -245,4 +421,34 @@ public class AccountController {
                     + logoUrl + "]";
         }
     }
+    
+    static class VerifyCodeRequest {
+        private String issuer;
+        private String nickname;
+        private String code;
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public void setIssuer(String issuer) {
+            this.issuer = issuer;
+        }
+
+        public String getNickname() {
+            return nickname;
+        }
+
+        public void setNickname(String nickname) {
+            this.nickname = nickname;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
 }
@@ -2,30 +2,48 @@ package com.twofactorauth.controller;
 
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
-import com.twofactorauth.model.UserTotp;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twofactorauth.model.UserIdView;
 import com.twofactorauth.repo.UserTotpRepository;
+import com.twofactorauth.service.ElpBulkService;
 import com.twofactorauth.service.ElpService;
 import com.twofactorauth.service.JwtService;
+import com.twofactorauth.service.RateLimiter;
 import com.twofactorauth.service.UserFetchService;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1/elp")
 public class ElpController {
 
+    static final String BULK_JOB_HEADER = "X-Bulk-Job-Id";
+
     @Autowired
     private ElpService elpService;
 
@@ -37,6 +55,19 @@ public class ElpController {
 
     @Autowired
     private UserFetchService userFetchService;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private ElpBulkService elpBulkService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Bearer token for the admin endpoints; empty disables them
+    @Value("${elp.bulk.admin-token:}")
+    private String bulkAdminToken;
     
     // Constructor with logging
     public ElpController() {
@@ -63,7 +94,7 @@ public class ElpController {
         }
         
         System.out.println("Looking up user: " + username);
-        UserTotp user = userTotpRepository.findByUsername(username)
+        UserIdView user = userTotpRepository.findIdentityByUsername(username)
                 .orElseThrow(() -> {
                     System.out.println("User not found in repository: " + username);
                     return new RuntimeException("User not found");
@@ -129,6 +160,13 @@ public class ElpController {
 
         System.out.println("Extracted user ID from filename: " + userId);
 
+        // Throttle per target account before decrypting and checking the file
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.ELP, userId);
+        if (retryAfter > 0) {
+            System.out.println("Too many ELP login attempts for user ID: " + userId);
+            return RateLimiter.tooManyRequests(retryAfter);
+        }
+
         try {
             System.out.println("Validating ELP file for user ID: " + userId);
             boolean isValid = elpService.validateElpFile(file, userId);
@@ -137,7 +175,7 @@ public class ElpController {
                 System.out.println("ELP file validation successful for user ID: " + userId);
 
                 // Find user by ID to return user details
-                UserTotp user = userTotpRepository.findById(userId).orElse(null);
+                UserIdView user = userTotpRepository.findIdentityById(userId).orElse(null);
                 
                 if (user != null) {
                     String username = user.getUsername();
@@ -194,6 +232,82 @@ public class ElpController {
         }
     }
 
+    /**
+     * Generate ELP files for many users and stream them back as a ZIP of
+     * userId.elp entries plus failures.json. The job id is sent in the
+     * X-Bulk-Job-Id header for polling /admin/bulk/{jobId}.
+     */
+    @PostMapping("/admin/bulk")
+    public void generateElpBulk(@RequestHeader(value = "Authorization", required = false) String authHeader,
+                                @RequestBody BulkRequest request,
+                                HttpServletResponse response) throws IOException {
+        System.out.println("POST /api/v1/elp/admin/bulk - Received request");
+
+        // The handler owns the response: the ZIP streams on this thread, so no async timeout applies
+        if (!isAdmin(authHeader)) {
+            writeError(response, HttpStatus.UNAUTHORIZED, "Invalid token");
+            return;
+        }
+        if (request == null || request.getUsernames() == null || request.getUsernames().isEmpty()) {
+            writeError(response, HttpStatus.BAD_REQUEST, "No usernames given");
+            return;
+        }
+        if (request.getUsernames().size() > elpBulkService.getMaxUsers()) {
+            writeError(response, HttpStatus.BAD_REQUEST,
+                    "At most " + elpBulkService.getMaxUsers() + " usernames per request");
+            return;
+        }
+
+        ElpBulkService.Job job = elpBulkService.startJob(request.getUsernames());
+        if (job == null) {
+            writeError(response, HttpStatus.CONFLICT, "A bulk ELP job is already running");
+            return;
+        }
+        System.out.println("Started bulk ELP job " + job.getId() + " for " + job.getTotal() + " users");
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"elp-" + job.getId() + ".zip\"");
+        response.setHeader(BULK_JOB_HEADER, job.getId());
+        try {
+            response.flushBuffer();
+            elpBulkService.run(job, response.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            // The response is committed, so the job status is the only place left to report this
+            System.out.println("Bulk ELP download aborted: " + e.getMessage());
+        } finally {
+            elpBulkService.release(job);
+        }
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), Map.of("error", message));
+    }
+
+    @GetMapping("/admin/bulk/{jobId}")
+    public ResponseEntity<?> getElpBulkProgress(@RequestHeader(value = "Authorization", required = false) String authHeader,
+                                                @PathVariable String jobId) {
+        if (!isAdmin(authHeader)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
+        }
+        ElpBulkService.Job job = elpBulkService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(job.toProgress());
+    }
+
+    private boolean isAdmin(String authHeader) {
+        if (bulkAdminToken == null || bulkAdminToken.isEmpty()
+                || authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return false;
+        }
+        return MessageDigest.isEqual(authHeader.substring(7).getBytes(StandardCharsets.UTF_8),
+                bulkAdminToken.getBytes(StandardCharsets.UTF_8));
+    }
+
     // @PostMapping("/login")
     // public ResponseEntity<String> loginWithElp(@RequestParam("file") MultipartFile file) {
     //     System.out.println("POST /api/v1/elp/login - Received login attempt with ELP file");
@@ -249,6 +363,18 @@ public class ElpController {
     //     return username;
     // }
 
+    static class BulkRequest {
+        private List<String> usernames;
+
+        public List<String> getUsernames() {
+            return usernames;
+        }
+
+        public void setUsernames(List<String> usernames) {
+            this.usernames = usernames;
+        }
+    }
+
     static class PinRequest {
         private String pin;
 
@@ -1,10 +1,12 @@
 package com.twofactorauth.controller;
 
-import com.twofactorauth.model.UserTotp;
+import com.twofactorauth.model.UserPinView;
 import com.twofactorauth.repo.UserTotpRepository;
 import com.twofactorauth.service.EncryptionService;
 import com.twofactorauth.service.JwtService;
+import com.twofactorauth.service.RateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -13,8 +15,14 @@ import java.util.Map;
 import java.util.Optional;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class PinController {
 
+    /** Body returned when the PIN changed between reading it and writing the new one */
+    static final Map<String, String> PIN_CONFLICT = Map.of(
+        "error", "PIN was changed by another request. Please try again."
+    );
+
     @Autowired
     private UserTotpRepository userTotpRepository;
     
@@ -24,6 +32,9 @@ public class PinController {
     @Autowired
     private EncryptionService encryptionService;
 
+    @Autowired
+    private RateLimiter rateLimiter;
+
     @GetMapping("/get-pin")
     public ResponseEntity<?> getPin(@RequestHeader("Authorization") String authHeader) {
         String username = extractUsernameFromToken(authHeader);
@@ -32,12 +43,12 @@ public class PinController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
+        Optional<UserPinView> userOptional = userTotpRepository.findPinByUsername(username);
         if (userOptional.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Pin not found"));
         }
         
-        UserTotp user = userOptional.get();
+        UserPinView user = userOptional.get();
         String encryptedPin = user.getPin();
         
         if (encryptedPin == null) {
@@ -59,12 +70,12 @@ public class PinController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
+        Optional<UserPinView> userOptional = userTotpRepository.findPinByUsername(username);
         if (userOptional.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No Accounts found"));
         }
         
-        UserTotp user = userOptional.get();
+        UserPinView user = userOptional.get();
         
         if (user.getPin() != null && !user.getPin().isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
@@ -74,8 +85,9 @@ public class PinController {
         
         // Encrypt the PIN before storing
         String encryptedPin = encryptionService.encrypt(pinRequest.getPin());
-        user.setPin(encryptedPin);
-        userTotpRepository.save(user);
+        if (!userTotpRepository.compareAndSetPin(user.getId(), user.getPinVersion(), encryptedPin)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(PIN_CONFLICT);
+        }
         
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -94,12 +106,18 @@ public class PinController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
+        // Throttle PIN guesses before the Mongo read and decrypt
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.PIN, username);
+        if (retryAfter > 0) {
+            return RateLimiter.tooManyRequests(retryAfter);
+        }
+        
+        Optional<UserPinView> userOptional = userTotpRepository.findPinByUsername(username);
         if (userOptional.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "User not found"));
         }
         
-        UserTotp user = userOptional.get();
+        UserPinView user = userOptional.get();
         String encryptedPin = user.getPin();
         
         if (encryptedPin == null) {
@@ -132,12 +150,18 @@ public class PinController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid token"));
         }
         
-        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
+        // Throttle PIN guesses before the Mongo read and decrypt
+        long retryAfter = rateLimiter.acquire(RateLimiter.Kind.PIN, username);
+        if (retryAfter > 0) {
+            return RateLimiter.tooManyRequests(retryAfter);
+        }
+        
+        Optional<UserPinView> userOptional = userTotpRepository.findPinByUsername(username);
         if (userOptional.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "User not found"));
         }
         
-        UserTotp user = userOptional.get();
+        UserPinView user = userOptional.get();
         String encryptedPin = user.getPin();
         
         if (encryptedPin == null) {
@@ -156,8 +180,9 @@ public class PinController {
         
         // Update and encrypt the new PIN
         String encryptedNewPin = encryptionService.encrypt(request.getNewPin());
-        user.setPin(encryptedNewPin);
-        userTotpRepository.save(user);
+        if (!userTotpRepository.compareAndSetPin(user.getId(), user.getPinVersion(), encryptedNewPin)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(PIN_CONFLICT);
+        }
         
         return ResponseEntity.ok(Map.of(
             "success", true,
@@ -0,0 +1,304 @@
+package com.twofactorauth.controller;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.repo.ReactiveUserTotpRepository;
+import com.twofactorauth.service.AccountBackupService;
+import com.twofactorauth.service.AccountCodeService;
+import com.twofactorauth.service.AccountImportService;
+import com.twofactorauth.service.CodeVerificationService;
+import com.twofactorauth.service.EncryptionService;
+import com.twofactorauth.service.RateLimiter;
+import com.twofactorauth.service.ReactiveAccountCodeService;
+import com.twofactorauth.service.ReactiveCodeStreamService;
+import com.twofactorauth.service.ReactiveJwtService;
+import com.twofactorauth.service.ServiceMetrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.crypto.AEADBadTagException;
+
+/**
+ * WebFlux version of {@link AccountController} with the same paths and JSON contracts.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAccountController {
+
+    @Autowired
+    private ReactiveUserTotpRepository userTotpRepository;
+
+    @Autowired
+    private ReactiveJwtService jwtService;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Autowired
+    private ReactiveAccountCodeService accountCodeService;
+
+    @Autowired
+    private ReactiveCodeStreamService codeStreamService;
+
+    @Autowired
+    private CodeVerificationService codeVerificationService;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private AccountImportService accountImportService;
+
+    @Autowired
+    private AccountBackupService accountBackupService;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @PostMapping("/add-account")
+    public Mono<ResponseEntity<Object>> addAccount(
+            @RequestBody AccountController.AccountRequest accountRequest,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    // Sanitize secret (remove spaces and convert to uppercase)
+                    String secret = accountRequest.getSecret().replace(" ", "").toUpperCase();
+
+                    Account account = new Account();
+                    account.setNickname(accountRequest.getNickname());
+                    account.setIssuer(accountRequest.getIssuer());
+                    account.setSecret(secret.isEmpty() ? "" : encryptionService.encrypt(secret));
+                    account.setLogoUrl(secret.isEmpty() ? null : accountRequest.getLogoUrl());
+
+                    return userTotpRepository.pushAccount(username, account)
+                            .then(Mono.fromRunnable(() -> accountCodeService.invalidate(username)))
+                            .thenReturn(json(HttpStatus.CREATED, Map.of(
+                                "success", true,
+                                "message", "Account added successfully"
+                            )));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @PostMapping("/import-accounts")
+    public Mono<ResponseEntity<Object>> importAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestBody Flux<String> lines) {
+
+        // The string decoder splits the body into lines as it arrives
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    AccountImportService.ImportBatch batch = accountImportService.newBatch();
+                    return lines.takeWhile(batch::addLine)
+                            .then(userTotpRepository.findAccountLabels(username))
+                            // Encryption is CPU work; keep it off the event loop
+                            .publishOn(Schedulers.parallel())
+                            .map(existing -> accountImportService.prepare(batch, existing))
+                            .flatMap(accounts -> accounts.isEmpty()
+                                    ? Mono.<Void>empty()
+                                    : userTotpRepository.pushAccounts(username, accounts)
+                                            .then(Mono.fromRunnable(() -> accountCodeService.invalidate(username))))
+                            .then(Mono.fromSupplier(() -> json(HttpStatus.OK, batch.toBody())));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @PostMapping("/export-accounts")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> exportAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = AccountController.BACKUP_PASSPHRASE_HEADER, required = false) String passphrase) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token")))
+                .flatMap(username -> {
+                    String problem = AccountController.passphraseProblem(passphrase);
+                    if (problem != null) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, problem));
+                    }
+                    long retryAfter = rateLimiter.acquire(RateLimiter.Kind.BACKUP, username);
+                    if (retryAfter > 0) {
+                        return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                                .<Flux<DataBuffer>>build());
+                    }
+                    // PBKDF2 takes a noticeable fraction of a second; keep it off the event loop
+                    return Mono.fromCallable(() -> accountBackupService.newWriter(passphrase.toCharArray()))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .map(writer -> ResponseEntity.ok()
+                                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                                            "attachment; filename=\"" + AccountController.BACKUP_FILENAME + "\"")
+                                    .body(backupBody(username, writer)));
+                });
+    }
+
+    private Flux<DataBuffer> backupBody(String username, AccountBackupService.BackupWriter writer) {
+        return Flux.concat(
+                    Mono.fromCallable(writer::header),
+                    userTotpRepository.streamAccounts(username)
+                            .concatMap(account -> Mono.fromCallable(() -> writer.add(account))),
+                    Mono.fromCallable(writer::finish))
+                .map(DefaultDataBufferFactory.sharedInstance::wrap);
+    }
+
+    @PostMapping("/restore-accounts")
+    public Mono<ResponseEntity<Object>> restoreAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = AccountController.BACKUP_PASSPHRASE_HEADER, required = false) String passphrase,
+            @RequestBody Flux<DataBuffer> body) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    String problem = AccountController.passphraseProblem(passphrase);
+                    if (problem != null) {
+                        return Mono.just(json(HttpStatus.BAD_REQUEST, Map.of("error", problem)));
+                    }
+                    long retryAfter = rateLimiter.acquire(RateLimiter.Kind.BACKUP, username);
+                    if (retryAfter > 0) {
+                        return Mono.just(RateLimiter.tooManyRequests(retryAfter));
+                    }
+                    AccountImportService.ImportBatch batch = accountImportService.newBatch();
+                    return userTotpRepository.findAccountLabels(username)
+                            // Decoding blocks on the request body and runs PBKDF2
+                            .publishOn(Schedulers.boundedElastic())
+                            .flatMap(existing -> Mono.fromCallable(() -> {
+                                try (InputStream in = DataBufferUtils.subscriberInputStream(body, 4)) {
+                                    return accountBackupService.decode(in, passphrase.toCharArray(), batch, existing);
+                                }
+                            }))
+                            .flatMap(accounts -> accounts.isEmpty()
+                                    ? Mono.<Void>empty()
+                                    : userTotpRepository.pushAccounts(username, accounts)
+                                            .then(Mono.fromRunnable(() -> accountCodeService.invalidate(username))))
+                            .then(Mono.fromSupplier(() -> json(HttpStatus.OK, batch.toBody())))
+                            .onErrorResume(AEADBadTagException.class, e ->
+                                    Mono.just(json(HttpStatus.BAD_REQUEST, AccountController.BACKUP_REJECTED)))
+                            .onErrorResume(IOException.class, e ->
+                                    Mono.just(json(HttpStatus.BAD_REQUEST, Map.of("error", "Invalid backup: " + e.getMessage()))));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @GetMapping("/accounts")
+    public Mono<ResponseEntity<Object>> getAccounts(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(accountCodeService::getCurrentCodes)
+                .map(codeSet -> {
+                    String etag = "\"a-" + codeSet.etag() + "\"";
+                    if (etag.equals(ifNoneMatch)) {
+                        return AccountController.<Object>notModified(etag, codeSet);
+                    }
+                    serviceMetrics.accountsReturned("/accounts", codeSet.codes().size());
+                    return AccountController.withCodeHeaders(ResponseEntity.ok(), etag, codeSet)
+                            .body((Object) AccountCodeService.toAccountsBody(codeSet.codes()));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @DeleteMapping("/account/{issuer}/{nickname}")
+    public Mono<ResponseEntity<Object>> removeAccount(
+            @PathVariable String issuer,
+            @PathVariable String nickname,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> userTotpRepository.pullAccount(username, issuer, nickname)
+                        .filter(found -> found)
+                        .doOnNext(found -> accountCodeService.invalidate(username))
+                        .map(found -> json(HttpStatus.OK, Map.of(
+                            "success", true,
+                            "message", "Account removed successfully"
+                        )))
+                        .switchIfEmpty(Mono.fromSupplier(() ->
+                            json(HttpStatus.NOT_FOUND, Map.of("error", "No accounts found")))))
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @GetMapping("/current-codes")
+    public Mono<ResponseEntity<Object>> getCurrentCodes(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(accountCodeService::getCurrentCodes)
+                .map(codeSet -> {
+                    // 404 only without accounts; if every secret failed to decode the answer is still 200 []
+                    if (codeSet.accounts() == 0) {
+                        return json(HttpStatus.NOT_FOUND, Map.of("error", "No accounts found"));
+                    }
+                    String etag = "\"c-" + codeSet.etag() + "\"";
+                    if (etag.equals(ifNoneMatch)) {
+                        return AccountController.<Object>notModified(etag, codeSet);
+                    }
+                    serviceMetrics.accountsReturned("/current-codes", codeSet.codes().size());
+                    return AccountController.withCodeHeaders(ResponseEntity.ok(), etag, codeSet)
+                            .body((Object) AccountCodeService.toCurrentCodesBody(codeSet.codes()));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @GetMapping(value = "/current-codes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamCurrentCodes(@RequestHeader("Authorization") String authHeader) {
+        String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : "";
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token")))
+                .flatMapMany(username -> {
+                    Flux<ServerSentEvent<Object>> stream = codeStreamService.subscribe(username, token);
+                    if (stream == null) {
+                        return Flux.error(new ResponseStatusException(
+                            HttpStatus.TOO_MANY_REQUESTS, "Too many open code streams"));
+                    }
+                    return stream;
+                });
+    }
+
+    @PostMapping("/verify-code")
+    public Mono<ResponseEntity<Object>> verifyCode(
+            @RequestBody AccountController.VerifyCodeRequest request,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    long retryAfter = rateLimiter.acquire(RateLimiter.Kind.VERIFY_CODE, username);
+                    if (retryAfter > 0) {
+                        return Mono.just(RateLimiter.tooManyRequests(retryAfter));
+                    }
+                    return userTotpRepository.findAccount(username, request.getIssuer(), request.getNickname())
+                            .map(account -> json(HttpStatus.OK, AccountController.verifyCodeBody(
+                                    codeVerificationService.verify(username, account, request.getCode()))))
+                            .switchIfEmpty(Mono.fromSupplier(() ->
+                                json(HttpStatus.NOT_FOUND, Map.of("error", "Account not found"))));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    static ResponseEntity<Object> json(HttpStatus status, Object body) {
+        return ResponseEntity.status(status).body(body);
+    }
+
+    static ResponseEntity<Object> invalidToken() {
+        return json(HttpStatus.UNAUTHORIZED, Map.of("error", "Invalid token"));
+    }
+}
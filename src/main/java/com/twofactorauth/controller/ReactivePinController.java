@@ -0,0 +1,149 @@
+package com.twofactorauth.controller;
+
+import com.twofactorauth.repo.ReactiveUserTotpRepository;
+import com.twofactorauth.service.EncryptionService;
+import com.twofactorauth.service.RateLimiter;
+import com.twofactorauth.service.ReactiveJwtService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+import static com.twofactorauth.controller.ReactiveAccountController.json;
+
+/**
+ * WebFlux version of {@link PinController} with the same paths and JSON contracts.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactivePinController {
+
+    @Autowired
+    private ReactiveUserTotpRepository userTotpRepository;
+
+    @Autowired
+    private ReactiveJwtService jwtService;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @GetMapping("/get-pin")
+    public Mono<ResponseEntity<Object>> getPin(@RequestHeader("Authorization") String authHeader) {
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> userTotpRepository.findPinByUsername(username)
+                        // We don't decrypt the PIN here - just check if it exists
+                        .map(user -> json(HttpStatus.OK, Map.of("pin", user.getPin() == null ? "" : user.getPin())))
+                        .switchIfEmpty(Mono.fromSupplier(() ->
+                            json(HttpStatus.NOT_FOUND, Map.of("error", "Pin not found")))))
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @PostMapping("/create-pin")
+    public Mono<ResponseEntity<Object>> createPin(
+            @RequestBody PinController.PinRequest pinRequest,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> userTotpRepository.findPinByUsername(username)
+                        .flatMap(user -> {
+                            if (user.getPin() != null && !user.getPin().isEmpty()) {
+                                return Mono.just(json(HttpStatus.BAD_REQUEST, Map.of(
+                                    "error", "PIN already exists. Use update-pin endpoint to change it."
+                                )));
+                            }
+                            // Encrypt the PIN before storing
+                            String encryptedPin = encryptionService.encrypt(pinRequest.getPin());
+                            return userTotpRepository.compareAndSetPin(user.getId(), user.getPinVersion(), encryptedPin)
+                                    .map(updated -> updated
+                                        ? json(HttpStatus.OK, Map.of(
+                                            "success", true,
+                                            "message", "PIN created successfully"
+                                        ))
+                                        : json(HttpStatus.CONFLICT, PinController.PIN_CONFLICT));
+                        })
+                        .switchIfEmpty(Mono.fromSupplier(() ->
+                            json(HttpStatus.NOT_FOUND, Map.of("error", "No Accounts found")))))
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @PostMapping("/verify-pin")
+    public Mono<ResponseEntity<Object>> verifyPin(
+            @RequestBody PinController.PinRequest pinRequest,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    long retryAfter = rateLimiter.acquire(RateLimiter.Kind.PIN, username);
+                    if (retryAfter > 0) {
+                        return Mono.just(RateLimiter.tooManyRequests(retryAfter));
+                    }
+                    return userTotpRepository.findPinByUsername(username)
+                            .map(user -> {
+                                if (user.getPin() == null) {
+                                    return json(HttpStatus.BAD_REQUEST, Map.of("error", "PIN not set"));
+                                }
+                                // Decrypt the stored PIN and compare with the provided PIN
+                                String storedPin = encryptionService.decrypt(user.getPin());
+                                if (storedPin == null) {
+                                    return json(HttpStatus.INTERNAL_SERVER_ERROR, Map.of(
+                                        "error", "Failed to decrypt stored PIN"
+                                    ));
+                                }
+                                return json(HttpStatus.OK, Map.of("verified", storedPin.equals(pinRequest.getPin())));
+                            })
+                            .switchIfEmpty(Mono.fromSupplier(() ->
+                                json(HttpStatus.NOT_FOUND, Map.of("error", "User not found"))));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+
+    @PutMapping("/update-pin")
+    public Mono<ResponseEntity<Object>> updatePin(
+            @RequestBody PinController.UpdatePinRequest request,
+            @RequestHeader("Authorization") String authHeader) {
+
+        return jwtService.extractUsernameFromHeader(authHeader)
+                .flatMap(username -> {
+                    long retryAfter = rateLimiter.acquire(RateLimiter.Kind.PIN, username);
+                    if (retryAfter > 0) {
+                        return Mono.just(RateLimiter.tooManyRequests(retryAfter));
+                    }
+                    return userTotpRepository.findPinByUsername(username)
+                            .flatMap(user -> {
+                                if (user.getPin() == null) {
+                                    return Mono.just(json(HttpStatus.BAD_REQUEST, Map.of(
+                                        "error", "No PIN exists. Use create-pin endpoint to set a PIN."
+                                    )));
+                                }
+                                // Verify the old PIN
+                                String storedPin = encryptionService.decrypt(user.getPin());
+                                if (!storedPin.equals(request.getOldPin())) {
+                                    return Mono.just(json(HttpStatus.BAD_REQUEST, Map.of(
+                                        "error", "Current PIN is incorrect"
+                                    )));
+                                }
+                                // Update and encrypt the new PIN
+                                String encryptedNewPin = encryptionService.encrypt(request.getNewPin());
+                                return userTotpRepository.compareAndSetPin(user.getId(), user.getPinVersion(), encryptedNewPin)
+                                        .map(updated -> updated
+                                            ? json(HttpStatus.OK, Map.of(
+                                                "success", true,
+                                                "message", "PIN updated successfully"
+                                            ))
+                                            : json(HttpStatus.CONFLICT, PinController.PIN_CONFLICT));
+                            })
+                            .switchIfEmpty(Mono.fromSupplier(() ->
+                                json(HttpStatus.NOT_FOUND, Map.of("error", "User not found"))));
+                })
+                .switchIfEmpty(Mono.fromSupplier(ReactiveAccountController::invalidToken));
+    }
+}
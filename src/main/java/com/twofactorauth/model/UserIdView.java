@@ -0,0 +1,9 @@
+package com.twofactorauth.model;
+
+/**
+ * Closed projection of UserTotp with only its identifiers
+ */
+public interface UserIdView {
+    String getId();
+    String getUsername();
+}
@@ -0,0 +1,10 @@
+package com.twofactorauth.model;
+
+/**
+ * Closed projection of UserTotp for the PIN endpoints. The accounts list is not read.
+ */
+public interface UserPinView {
+    String getId();
+    String getPin();
+    Long getPinVersion();
+}
@@ -17,4 +17,13 @@ public class UserTotp {
     private String username;
     private String pin;
     private List<Account> accounts = new ArrayList<>();
+
+    // Bumped by every targeted update in UserTotpRepositoryCustom. Not @Version:
+    // documents written before this field existed have no value, and Spring Data
+    // would treat them as new.
+    private Long version;
+
+    // Bumped only by PIN writes and used as their compare-and-set guard, so
+    // account adds and removes never make a PIN change conflict
+    private Long pinVersion;
 }
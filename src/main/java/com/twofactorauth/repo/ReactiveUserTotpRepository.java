@@ -0,0 +1,18 @@
+package com.twofactorauth.repo;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+import com.twofactorauth.model.UserPinView;
+import com.twofactorauth.model.UserTotp;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link UserTotpRepository} for the reactive stack.
+ */
+public interface ReactiveUserTotpRepository extends ReactiveMongoRepository<UserTotp, String>,
+        ReactiveUserTotpRepositoryCustom {
+    Mono<UserTotp> findByUsername(String username);
+
+    Mono<UserPinView> findPinByUsername(String username);
+}
@@ -0,0 +1,28 @@
+package com.twofactorauth.repo;
+
+import java.util.List;
+
+import com.twofactorauth.model.Account;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of {@link UserTotpRepositoryCustom}.
+ */
+public interface ReactiveUserTotpRepositoryCustom {
+
+    Mono<Void> pushAccount(String username, Account account);
+
+    Mono<Void> pushAccounts(String username, List<Account> accounts);
+
+    Mono<Boolean> pullAccount(String username, String issuer, String nickname);
+
+    Mono<Account> findAccount(String username, String issuer, String nickname);
+
+    Mono<List<Account>> findAccountLabels(String username);
+
+    Flux<Account> streamAccounts(String username);
+
+    Mono<Boolean> compareAndSetPin(String id, Long expectedPinVersion, String encryptedPin);
+}
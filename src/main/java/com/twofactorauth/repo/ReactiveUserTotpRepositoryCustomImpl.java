@@ -0,0 +1,84 @@
+package com.twofactorauth.repo;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.model.UserTotp;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ReactiveUserTotpRepositoryCustomImpl implements ReactiveUserTotpRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Override
+    public Mono<Void> pushAccount(String username, Account account) {
+        return reactiveMongoTemplate.upsert(
+                query(where("username").is(username)),
+                new Update().push("accounts", account).inc("version", 1),
+                UserTotp.class)
+            .then();
+    }
+
+    @Override
+    public Mono<Void> pushAccounts(String username, List<Account> accounts) {
+        return reactiveMongoTemplate.upsert(
+                query(where("username").is(username)),
+                new Update().push("accounts").each(accounts.toArray()).inc("version", 1),
+                UserTotp.class)
+            .then();
+    }
+
+    @Override
+    public Mono<Boolean> pullAccount(String username, String issuer, String nickname) {
+        return reactiveMongoTemplate.updateFirst(
+                query(where("username").is(username)),
+                new Update()
+                    .pull("accounts", new Document("issuer", issuer).append("nickname", nickname))
+                    .inc("version", 1),
+                UserTotp.class)
+            .map(result -> result.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Mono<Account> findAccount(String username, String issuer, String nickname) {
+        return reactiveMongoTemplate.findOne(
+                UserTotpRepositoryCustomImpl.accountQuery(username, issuer, nickname), UserTotp.class)
+            .mapNotNull(user -> user.getAccounts() == null || user.getAccounts().isEmpty()
+                ? null
+                : user.getAccounts().get(0));
+    }
+
+    @Override
+    public Mono<List<Account>> findAccountLabels(String username) {
+        return reactiveMongoTemplate.findOne(
+                UserTotpRepositoryCustomImpl.accountLabelsQuery(username), UserTotp.class)
+            .map(user -> user.getAccounts() == null ? List.<Account>of() : user.getAccounts())
+            .defaultIfEmpty(List.of());
+    }
+
+    @Override
+    public Flux<Account> streamAccounts(String username) {
+        return reactiveMongoTemplate.aggregate(UserTotpRepositoryCustomImpl.accountsAggregation(username),
+                UserTotp.class, Account.class);
+    }
+
+    @Override
+    public Mono<Boolean> compareAndSetPin(String id, Long expectedPinVersion, String encryptedPin) {
+        return reactiveMongoTemplate.updateFirst(
+                query(where("_id").is(id).and("pinVersion").is(expectedPinVersion)),
+                new Update().set("pin", encryptedPin).inc("pinVersion", 1).inc("version", 1),
+                UserTotp.class)
+            .map(result -> result.getModifiedCount() > 0);
+    }
+}
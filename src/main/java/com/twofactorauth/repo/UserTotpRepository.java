@@ -2,10 +2,23 @@ package com.twofactorauth.repo;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import com.twofactorauth.model.UserIdView;
+import com.twofactorauth.model.UserPinView;
 import com.twofactorauth.model.UserTotp;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface UserTotpRepository extends MongoRepository<UserTotp, String> {
+public interface UserTotpRepository extends MongoRepository<UserTotp, String>, UserTotpRepositoryCustom {
     Optional<UserTotp> findByUsername(String username);
+
+    // Projections only fetch the listed fields, not the embedded accounts
+    Optional<UserPinView> findPinByUsername(String username);
+
+    Optional<UserIdView> findIdentityByUsername(String username);
+
+    Optional<UserIdView> findIdentityById(String id);
+
+    List<UserIdView> findIdentitiesByUsernameIn(Collection<String> usernames);
 }
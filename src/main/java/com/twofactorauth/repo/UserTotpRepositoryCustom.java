@@ -0,0 +1,53 @@
+package com.twofactorauth.repo;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.twofactorauth.model.Account;
+
+/**
+ * Targeted updates on user_totp documents. Each write bumps UserTotp.version.
+ */
+public interface UserTotpRepositoryCustom {
+
+    /**
+     * Append an account with $push, creating the user document if it does not exist
+     */
+    void pushAccount(String username, Account account);
+
+    /**
+     * Append several accounts with one $push $each, creating the user document if needed
+     */
+    void pushAccounts(String username, List<Account> accounts);
+
+    /**
+     * Remove accounts matching issuer and nickname with $pull
+     * @return false if the user does not exist
+     */
+    boolean pullAccount(String username, String issuer, String nickname);
+
+    /**
+     * Load a single account of the user. Only the matching array element is read.
+     */
+    Optional<Account> findAccount(String username, String issuer, String nickname);
+
+    /**
+     * The user's accounts with only issuer and nickname loaded; empty if the user does not exist
+     */
+    List<Account> findAccountLabels(String username);
+
+    /**
+     * The user's accounts one at a time from a cursor, without loading the whole document.
+     * The stream must be closed.
+     */
+    Stream<Account> streamAccounts(String username);
+
+    /**
+     * Set the PIN only if no other PIN write happened since it was read.
+     * Guarded by UserTotp.pinVersion, which account updates leave alone.
+     * @param expectedPinVersion pinVersion read with the document, null if the PIN was never written this way
+     * @return false if the PIN was written since it was read
+     */
+    boolean compareAndSetPin(String id, Long expectedPinVersion, String encryptedPin);
+}
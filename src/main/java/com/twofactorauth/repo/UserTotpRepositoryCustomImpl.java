@@ -0,0 +1,109 @@
+package com.twofactorauth.repo;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.replaceRoot;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.client.result.UpdateResult;
+import com.twofactorauth.model.Account;
+import com.twofactorauth.model.UserTotp;
+
+class UserTotpRepositoryCustomImpl implements UserTotpRepositoryCustom {
+
+    // Accounts per cursor batch when streaming
+    private static final int ACCOUNT_BATCH_SIZE = 64;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void pushAccount(String username, Account account) {
+        mongoTemplate.upsert(
+            query(where("username").is(username)),
+            new Update().push("accounts", account).inc("version", 1),
+            UserTotp.class);
+    }
+
+    @Override
+    public void pushAccounts(String username, List<Account> accounts) {
+        mongoTemplate.upsert(
+            query(where("username").is(username)),
+            new Update().push("accounts").each(accounts.toArray()).inc("version", 1),
+            UserTotp.class);
+    }
+
+    @Override
+    public boolean pullAccount(String username, String issuer, String nickname) {
+        UpdateResult result = mongoTemplate.updateFirst(
+            query(where("username").is(username)),
+            new Update()
+                .pull("accounts", new Document("issuer", issuer).append("nickname", nickname))
+                .inc("version", 1),
+            UserTotp.class);
+        return result.getMatchedCount() > 0;
+    }
+
+    @Override
+    public Optional<Account> findAccount(String username, String issuer, String nickname) {
+        UserTotp user = mongoTemplate.findOne(accountQuery(username, issuer, nickname), UserTotp.class);
+        return user == null || user.getAccounts() == null
+                ? Optional.empty()
+                : user.getAccounts().stream().findFirst();
+    }
+
+    @Override
+    public List<Account> findAccountLabels(String username) {
+        UserTotp user = mongoTemplate.findOne(accountLabelsQuery(username), UserTotp.class);
+        return user == null || user.getAccounts() == null ? List.of() : user.getAccounts();
+    }
+
+    @Override
+    public Stream<Account> streamAccounts(String username) {
+        return mongoTemplate.aggregateStream(accountsAggregation(username), UserTotp.class, Account.class);
+    }
+
+    @Override
+    public boolean compareAndSetPin(String id, Long expectedPinVersion, String encryptedPin) {
+        // is(null) also matches documents written before the pinVersion field existed
+        UpdateResult result = mongoTemplate.updateFirst(
+            query(where("_id").is(id).and("pinVersion").is(expectedPinVersion)),
+            new Update().set("pin", encryptedPin).inc("pinVersion", 1).inc("version", 1),
+            UserTotp.class);
+        return result.getModifiedCount() > 0;
+    }
+
+    static Aggregation accountsAggregation(String username) {
+        return newAggregation(
+                match(where("username").is(username)),
+                unwind("accounts"),
+                replaceRoot("accounts"))
+            .withOptions(AggregationOptions.builder().cursorBatchSize(ACCOUNT_BATCH_SIZE).build());
+    }
+
+    static Query accountLabelsQuery(String username) {
+        Query query = query(where("username").is(username));
+        query.fields().include("accounts.issuer", "accounts.nickname");
+        return query;
+    }
+
+    static Query accountQuery(String username, String issuer, String nickname) {
+        Query query = query(where("username").is(username));
+        query.fields().elemMatch("accounts", where("issuer").is(issuer).and("nickname").is(nickname));
+        return query;
+    }
+}
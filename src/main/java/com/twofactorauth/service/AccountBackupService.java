@@ -0,0 +1,310 @@
+package com.twofactorauth.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.repo.UserTotpRepository;
+
+/**
+ * Passphrase-encrypted export and restore of a user's accounts.
+ *
+ * Backup format: header ("STOTPBK1", PBKDF2 iteration count, 16 byte salt),
+ * then chunks of [flags][length][12 byte IV][AES-256-GCM ciphertext]. Each
+ * chunk holds up to CHUNK_ACCOUNTS accounts as otpauth:// lines, the same
+ * format /import-accounts reads. The header, chunk number and flags are bound
+ * in as associated data, and the last chunk carries the final flag, so
+ * reordered, spliced or truncated backups fail to restore.
+ *
+ * Export decrypts one stored secret at a time straight into the current
+ * chunk buffer, which is wiped once the chunk is encrypted; restore decrypts
+ * one chunk at a time and re-encrypts its entries under the server key before
+ * reading the next. Neither ever holds the plaintext of all accounts.
+ */
+@Service
+public class AccountBackupService {
+
+    public static final int MIN_PASSPHRASE_LENGTH = 8;
+
+    static final int CHUNK_ACCOUNTS = 64;
+
+    private static final byte[] MAGIC = "STOTPBK1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SALT_BYTES = 16;
+    private static final int HEADER_BYTES = MAGIC.length + 4 + SALT_BYTES;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int FINAL_CHUNK = 1;
+    // Restore refuses headers outside these bounds instead of running an arbitrary KDF cost
+    private static final int MIN_ITERATIONS = 100_000;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final int MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @Value("${accounts.backup.pbkdf2-iterations:600000}")
+    private int iterations;
+
+    @Autowired
+    private UserTotpRepository userTotpRepository;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Autowired
+    private AccountImportService accountImportService;
+
+    /**
+     * Derive a fresh backup key from the passphrase. Costs one PBKDF2 run.
+     */
+    public BackupWriter newWriter(char[] passphrase) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).putInt(iterations).put(salt);
+        return new BackupWriter(header.array(), deriveKey(passphrase, salt, iterations));
+    }
+
+    /**
+     * Write the user's backup to out, reading accounts through a cursor
+     */
+    public void writeBackup(String username, BackupWriter writer, OutputStream out) throws IOException {
+        out.write(writer.header());
+        try (Stream<Account> accounts = userTotpRepository.streamAccounts(username)) {
+            Iterator<Account> iterator = accounts.iterator();
+            while (iterator.hasNext()) {
+                byte[] chunk = writer.add(iterator.next());
+                if (chunk != null) {
+                    out.write(chunk);
+                    out.flush();
+                }
+            }
+        }
+        out.write(writer.finish());
+        out.flush();
+    }
+
+    /**
+     * Restore a backup into the user's accounts with one $push $each
+     * @return per-entry results, as for an import
+     * @throws javax.crypto.AEADBadTagException wrong passphrase or modified backup
+     * @throws IOException malformed or truncated backup; nothing is stored
+     */
+    public AccountImportService.ImportBatch restore(String username, char[] passphrase, InputStream in)
+            throws IOException, GeneralSecurityException {
+        AccountImportService.ImportBatch batch = accountImportService.newBatch();
+        List<Account> accounts = decode(in, passphrase, batch, userTotpRepository.findAccountLabels(username));
+        if (!accounts.isEmpty()) {
+            userTotpRepository.pushAccounts(username, accounts);
+        }
+        return batch;
+    }
+
+    /**
+     * Decrypt and verify a whole backup, preparing its entries chunk by chunk
+     * @return accounts to store, already encrypted under the server key
+     */
+    public List<Account> decode(InputStream in, char[] passphrase, AccountImportService.ImportBatch batch,
+                                List<Account> existing) throws IOException, GeneralSecurityException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = data.readNBytes(HEADER_BYTES);
+        if (header.length != HEADER_BYTES || !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a backup file");
+        }
+        int backupIterations = ByteBuffer.wrap(header, MAGIC.length, 4).getInt();
+        if (backupIterations < MIN_ITERATIONS || backupIterations > MAX_ITERATIONS) {
+            throw new IOException("Unsupported key derivation settings");
+        }
+        SecretKeySpec key = deriveKey(passphrase,
+                Arrays.copyOfRange(header, MAGIC.length + 4, HEADER_BYTES), backupIterations);
+
+        List<Account> accounts = new ArrayList<>();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        boolean accepting = true;
+        for (int index = 0; ; index++) {
+            int flags = data.read();
+            if (flags < 0) {
+                throw new EOFException("Backup is truncated");
+            }
+            int length = data.readInt();
+            if (length < TAG_BITS / 8 || length > MAX_CHUNK_BYTES) {
+                throw new IOException("Invalid chunk length");
+            }
+            byte[] iv = new byte[IV_BYTES];
+            data.readFully(iv);
+            byte[] ciphertext = new byte[length];
+            data.readFully(ciphertext);
+
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(associatedData(header, index, flags));
+            byte[] plaintext = cipher.doFinal(ciphertext);
+            try {
+                int start = 0;
+                for (int i = 0; i <= plaintext.length && accepting; i++) {
+                    if (i == plaintext.length || plaintext[i] == '\n') {
+                        if (i > start) {
+                            accepting = batch.addLine(new String(plaintext, start, i - start, StandardCharsets.UTF_8));
+                        }
+                        start = i + 1;
+                    }
+                }
+            } finally {
+                Arrays.fill(plaintext, (byte) 0);
+            }
+            accounts.addAll(accountImportService.prepare(batch, existing));
+
+            if ((flags & FINAL_CHUNK) != 0) {
+                break;
+            }
+        }
+        if (data.read() != -1) {
+            throw new IOException("Unexpected data after the final chunk");
+        }
+        return accounts;
+    }
+
+    private static SecretKeySpec deriveKey(char[] passphrase, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, 256);
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] associatedData(byte[] header, int index, int flags) {
+        return ByteBuffer.allocate(header.length + 5).put(header).putInt(index).put((byte) flags).array();
+    }
+
+    /**
+     * Builds one backup. Not thread-safe; fed by one export.
+     */
+    public final class BackupWriter {
+        private final byte[] header;
+        private final SecretKeySpec key;
+        private final ChunkBuffer chunk = new ChunkBuffer();
+        private int accountsInChunk;
+        private int chunkIndex;
+
+        private BackupWriter(byte[] header, SecretKeySpec key) {
+            this.header = header;
+            this.key = key;
+        }
+
+        public byte[] header() {
+            return header.clone();
+        }
+
+        /**
+         * Add an account
+         * @return an encrypted chunk once CHUNK_ACCOUNTS accounts are buffered, otherwise null
+         */
+        public byte[] add(Account account) throws IOException {
+            if (account.getSecret() == null || account.getSecret().isEmpty()) {
+                return null;
+            }
+            byte[] secret;
+            try {
+                secret = encryptionService.decrypt(Base64.getDecoder().decode(account.getSecret()));
+            } catch (RuntimeException e) {
+                System.out.println("Skipping account with unreadable secret in export: " + e.getMessage());
+                return null;
+            }
+            try {
+                String issuer = account.getIssuer();
+                boolean hasIssuer = issuer != null && !issuer.isEmpty();
+                String nickname = account.getNickname() == null ? "" : account.getNickname();
+                chunk.writeText("otpauth://totp/");
+                chunk.writeText(hasIssuer ? encode(issuer) + ":" + encode(nickname) : encode(nickname));
+                chunk.writeText("?secret=");
+                chunk.writeBytes(secret);
+                if (hasIssuer) {
+                    chunk.writeText("&issuer=" + encode(issuer));
+                }
+                if (account.getLogoUrl() != null) {
+                    chunk.writeText("&image=" + encode(account.getLogoUrl()));
+                }
+                chunk.write('\n');
+            } finally {
+                Arrays.fill(secret, (byte) 0);
+            }
+            return ++accountsInChunk >= CHUNK_ACCOUNTS ? seal(0) : null;
+        }
+
+        /**
+         * The final chunk, possibly empty; marks the end of the backup
+         */
+        public byte[] finish() throws IOException {
+            return seal(FINAL_CHUNK);
+        }
+
+        private byte[] seal(int flags) throws IOException {
+            try {
+                byte[] iv = new byte[IV_BYTES];
+                RANDOM.nextBytes(iv);
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(associatedData(header, chunkIndex, flags));
+                byte[] ciphertext = cipher.doFinal(chunk.buffer(), 0, chunk.size());
+                chunkIndex++;
+                accountsInChunk = 0;
+                return ByteBuffer.allocate(1 + 4 + IV_BYTES + ciphertext.length)
+                        .put((byte) flags).putInt(ciphertext.length).put(iv).put(ciphertext)
+                        .array();
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not encrypt backup chunk", e);
+            } finally {
+                chunk.wipe();
+            }
+        }
+    }
+
+    // Reusable chunk buffer whose contents can be wiped. Sized so a full chunk
+    // normally fits without growing, which would leave an unwiped copy behind.
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(CHUNK_ACCOUNTS * 256);
+        }
+
+        void writeText(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void wipe() {
+            Arrays.fill(buf, (byte) 0);
+            reset();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.twofactorauth.service;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-user cache of computed codes for one TOTP time step.
+ *
+ * Each user has an account-set version that is bumped by {@link #invalidate(String)}.
+ * A result is only stored if the version it was computed against is still
+ * current, and only served while the time step it was computed for is current,
+ * so entries expire at the step boundary without a timer.
+ */
+@Component
+public class AccountCodeCache {
+
+    @Value("${codes.cache.max-users:10000}")
+    private int maxUsers;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Cached codes for the user and step, or null on a miss
+     */
+    public Entry get(String username, long step) {
+        Entry entry = entries.get(username);
+        if (entry == null || entry.codes() == null || entry.step() != step) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Version to pass to {@link #put} for a computation starting now
+     */
+    public long currentVersion(String username) {
+        Entry entry = entries.get(username);
+        return entry == null ? 0 : entry.version();
+    }
+
+    /**
+     * Store codes computed against the given version. Ignored if the
+     * account set changed in the meantime.
+     */
+    public void put(String username, long step, long version, int accounts,
+                    List<AccountCodeService.AccountCode> codes, String etag) {
+        if (entries.size() >= maxUsers) {
+            purgeBefore(step - 1);
+            if (entries.size() >= maxUsers) {
+                return;
+            }
+        }
+        Entry fresh = new Entry(step, version, accounts, codes, etag);
+        entries.compute(username, (key, existing) -> {
+            long existingVersion = existing == null ? 0 : existing.version();
+            return existingVersion == version ? fresh : existing;
+        });
+    }
+
+    /**
+     * Drop the user's cached codes and bump the account-set version
+     */
+    public void invalidate(String username) {
+        long step = TotpEngine.timeStep(System.currentTimeMillis());
+        entries.compute(username, (key, existing) -> {
+            long version = existing == null ? 1 : existing.version() + 1;
+            return new Entry(step, version, 0, null, null);
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Invalidation markers (codes == null) age out like normal entries. They are
+    // kept for one extra step so an in-flight computation cannot store codes for
+    // an account set that has since changed.
+    private void purgeBefore(long step) {
+        entries.values().removeIf(entry -> entry.step() < step);
+    }
+
+    /**
+     * @param accounts stored accounts the codes were computed from, including any whose secret failed to decode
+     */
+    public record Entry(long step, long version, int accounts, List<AccountCodeService.AccountCode> codes,
+                        String etag) {}
+}
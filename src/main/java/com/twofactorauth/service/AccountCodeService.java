@@ -0,0 +1,219 @@
+package com.twofactorauth.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.model.UserTotp;
+import com.twofactorauth.repo.UserTotpRepository;
+
+/**
+ * Computes the current TOTP codes for all of a user's accounts.
+ * Results are cached per user for the rest of the time step.
+ */
+@Service
+public class AccountCodeService {
+
+    /** Longest Base32 secret decrypted into the shared scratch buffer */
+    public static final int MAX_SCRATCH_SECRET_CHARS = 128;
+
+    /**
+     * Scratch size for decrypted secrets. The buffer is sized by ciphertext length,
+     * which AES with PKCS#5 padding rounds up to the next full 16-byte block.
+     */
+    public static final int SECRET_BUFFER_BYTES = (MAX_SCRATCH_SECRET_CHARS / 16 + 1) * 16;
+
+    @Autowired
+    private UserTotpRepository userTotpRepository;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Autowired
+    private AccountCodeCache accountCodeCache;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    /**
+     * Codes for the user's accounts at the current time step
+     * @param username username from the token
+     * @return code set, with no accounts if the user has none
+     */
+    public CodeSet getCurrentCodes(String username) {
+        long now = System.currentTimeMillis();
+        CodeSet cached = getCachedCodes(username, now);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = currentVersion(username);
+        Optional<UserTotp> userOptional = userTotpRepository.findByUsername(username);
+        List<Account> accounts = userOptional.isEmpty() || userOptional.get().getAccounts() == null
+                ? List.of()
+                : userOptional.get().getAccounts();
+        return cacheCodes(username, now, version, accounts);
+    }
+
+    /**
+     * Cached codes for the step containing now, or null.
+     * Callers that load accounts themselves (the reactive stack) use this
+     * together with {@link #currentVersion} and {@link #cacheCodes}.
+     */
+    public CodeSet getCachedCodes(String username, long now) {
+        long step = TotpEngine.timeStep(now);
+        AccountCodeCache.Entry cached = accountCodeCache.get(username, step);
+        if (cached == null) {
+            return null;
+        }
+        return new CodeSet(step, validForSeconds(now), cached.accounts(), cached.codes(), cached.etag());
+    }
+
+    /**
+     * Account-set version to read before loading the user's accounts
+     */
+    public long currentVersion(String username) {
+        return accountCodeCache.currentVersion(username);
+    }
+
+    /**
+     * Compute codes for the loaded accounts and cache them against the version read before loading
+     */
+    public CodeSet cacheCodes(String username, long now, long version, List<Account> accounts) {
+        long step = TotpEngine.timeStep(now);
+        List<AccountCode> codes = computeCodes(accounts, step);
+        String etag = etag(step, codes);
+        accountCodeCache.put(username, step, version, accounts.size(), codes, etag);
+        return new CodeSet(step, validForSeconds(now), accounts.size(), codes, etag);
+    }
+
+    /**
+     * Forget cached codes after the user's account set changed
+     */
+    public void invalidate(String username) {
+        accountCodeCache.invalidate(username);
+    }
+
+    /**
+     * Decrypt each secret and generate its code. Accounts with invalid secrets are skipped.
+     */
+    public List<AccountCode> computeCodes(List<Account> accounts, long step) {
+        List<AccountCode> codes = new ArrayList<>(accounts.size());
+        ByteBuffer scratch = ByteBuffer.allocate(SECRET_BUFFER_BYTES);
+        for (Account account : accounts) {
+            long start = System.nanoTime();
+            try {
+                // Decrypt the secret before generating code
+                int code = prepareSecret(account.getSecret(), scratch).generate(step);
+                codes.add(new AccountCode(account.getIssuer(), account.getNickname(),
+                        account.getLogoUrl(), TotpEngine.formatCode(code)));
+                serviceMetrics.codeGenerated(start);
+            } catch (Exception e) {
+                // Skip accounts with invalid secrets
+                System.out.println("Error generating code: " + e.getMessage());
+            }
+        }
+        return List.copyOf(codes);
+    }
+
+    /**
+     * Decrypt a stored secret into the scratch buffer and key a generator with it.
+     * The plaintext never becomes a String and is wiped before returning.
+     * @param scratch reusable buffer; a larger one is allocated for oversized secrets
+     */
+    public TotpEngine.Generator prepareSecret(String storedSecret, ByteBuffer scratch) throws GeneralSecurityException {
+        byte[] ciphertext = Base64.getDecoder().decode(storedSecret);
+        ByteBuffer plaintext = ciphertext.length <= scratch.capacity()
+                ? scratch.clear()
+                : ByteBuffer.allocate(ciphertext.length);
+        try {
+            encryptionService.decrypt(ByteBuffer.wrap(ciphertext), plaintext);
+            plaintext.flip();
+            return TotpEngine.prepare(plaintext);
+        } finally {
+            Arrays.fill(plaintext.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * Response body of /accounts for the given codes
+     */
+    public static List<Map<String, Object>> toAccountsBody(List<AccountCode> codes) {
+        List<Map<String, Object>> result = new ArrayList<>(codes.size());
+        for (AccountCode code : codes) {
+            Map<String, Object> accountData = new HashMap<>();
+            accountData.put("nickname", code.nickname());
+            accountData.put("issuer", code.issuer());
+            accountData.put("code", code.code());
+            
+            result.add(accountData);
+        }
+        return result;
+    }
+
+    /**
+     * Response body of /current-codes for the given codes
+     */
+    public static List<Map<String, Object>> toCurrentCodesBody(List<AccountCode> codes) {
+        List<Map<String, Object>> result = new ArrayList<>(codes.size());
+        for (AccountCode code : codes) {
+            Map<String, Object> codeData = new HashMap<>();
+            codeData.put("key", code.issuer() + " (" + code.nickname() + ")");
+            codeData.put("code", code.code());
+            codeData.put("issuer", code.issuer());
+            codeData.put("nickname", code.nickname());
+            codeData.put("logoUrl", code.logoUrl());
+            
+            result.add(codeData);
+        }
+        return result;
+    }
+
+    private static long validForSeconds(long now) {
+        return (TotpEngine.millisRemainingInStep(now) + 999) / 1000;
+    }
+
+    private static String etag(long step, List<AccountCode> codes) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(Long.toString(step).getBytes(StandardCharsets.UTF_8));
+            for (AccountCode code : codes) {
+                sha.update((byte) 0);
+                sha.update(String.valueOf(code.issuer()).getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(String.valueOf(code.nickname()).getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(String.valueOf(code.logoUrl()).getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(code.code().getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(sha.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record AccountCode(String issuer, String nickname, String logoUrl, String code) {}
+
+    /**
+     * Codes for one time step
+     * @param validForSeconds seconds until the step ends and the codes change
+     * @param accounts stored accounts; more than codes.size() if some secrets failed to decode
+     * @param etag content hash of the code set, without quotes
+     */
+    public record CodeSet(long step, long validForSeconds, int accounts, List<AccountCode> codes, String etag) {}
+}
@@ -0,0 +1,287 @@
+package com.twofactorauth.service;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses one line of an account import into entries.
+ *
+ * Two formats are understood:
+ * - otpauth://totp/Issuer:name?secret=...&issuer=... (Key URI format)
+ * - otpauth-migration://offline?data=... (authenticator app export; a
+ *   Base64 protobuf MigrationPayload that may hold many accounts)
+ *
+ * Only what TotpEngine can generate is accepted: TOTP with SHA1, 6 digits and
+ * a 30 second period. Anything else becomes an entry with an error so the
+ * caller can report it per line.
+ */
+public final class AccountImportParser {
+
+    private static final String OTPAUTH = "otpauth://";
+    private static final String MIGRATION = "otpauth-migration://";
+
+    // MigrationPayload / OtpParameters enum values
+    private static final int ALGORITHM_SHA1 = 1;
+    private static final int DIGITS_SIX = 1;
+    private static final int TYPE_TOTP = 2;
+
+    private AccountImportParser() {}
+
+    /**
+     * One parsed account. secret is normalised Base32; error is set instead when the entry cannot be imported.
+     */
+    public record Entry(String issuer, String nickname, String secret, String logoUrl, String error) {
+        static Entry invalid(String issuer, String nickname, String error) {
+            return new Entry(issuer, nickname, null, null, error);
+        }
+
+        Entry withoutSecret() {
+            return new Entry(issuer, nickname, null, logoUrl, error);
+        }
+    }
+
+    /**
+     * Entries on one line; empty for blank lines and # comments
+     */
+    public static List<Entry> parseLine(String line) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return List.of();
+        }
+        String lower = trimmed.toLowerCase(Locale.ROOT);
+        try {
+            if (lower.startsWith(OTPAUTH)) {
+                return List.of(parseKeyUri(trimmed));
+            }
+            if (lower.startsWith(MIGRATION)) {
+                return parseMigration(trimmed);
+            }
+        } catch (IllegalArgumentException e) {
+            return List.of(Entry.invalid(null, null, "Malformed URI: " + e.getMessage()));
+        }
+        return List.of(Entry.invalid(null, null, "Not an otpauth:// or otpauth-migration:// URI"));
+    }
+
+    /**
+     * Remove spaces, dashes and '=' padding, upper-case, and check the Base32 alphabet
+     * @return normalised secret, or null if it is empty or not Base32
+     */
+    public static String normaliseSecret(String secret) {
+        if (secret == null) {
+            return null;
+        }
+        StringBuilder normalised = new StringBuilder(secret.length());
+        for (int i = 0; i < secret.length(); i++) {
+            char c = secret.charAt(i);
+            if (c != ' ' && c != '-' && c != '=') {
+                normalised.append(Character.toUpperCase(c));
+            }
+        }
+        if (normalised.isEmpty()) {
+            return null;
+        }
+        try {
+            return TotpEngine.decodeBase32(normalised).length == 0 ? null : normalised.toString();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Entry parseKeyUri(String uri) {
+        int typeEnd = uri.indexOf('/', OTPAUTH.length());
+        if (typeEnd < 0) {
+            throw new IllegalArgumentException("Missing label");
+        }
+        String type = uri.substring(OTPAUTH.length(), typeEnd).toLowerCase(Locale.ROOT);
+        int queryStart = uri.indexOf('?', typeEnd);
+        String label = decode(uri.substring(typeEnd + 1, queryStart < 0 ? uri.length() : queryStart));
+        Map<String, String> params = queryStart < 0 ? Map.of() : parseQuery(uri.substring(queryStart + 1));
+
+        // Label is "issuer:name" or just "name"; the issuer parameter wins if both are given
+        String issuer = params.get("issuer");
+        String nickname = label;
+        int colon = label.indexOf(':');
+        if (issuer != null && !issuer.isBlank() && label.startsWith(issuer + ":")) {
+            // Exact prefix first, so names containing ':' survive an export and restore
+            nickname = label.substring(issuer.length() + 1).strip();
+        } else if (colon >= 0) {
+            if (issuer == null || issuer.isBlank()) {
+                issuer = label.substring(0, colon).strip();
+            }
+            nickname = label.substring(colon + 1).strip();
+        }
+
+        if (!"totp".equals(type)) {
+            return Entry.invalid(issuer, nickname, "Unsupported type: " + type);
+        }
+        String algorithm = params.getOrDefault("algorithm", "SHA1");
+        if (!"SHA1".equalsIgnoreCase(algorithm)) {
+            return Entry.invalid(issuer, nickname, "Unsupported algorithm: " + algorithm);
+        }
+        if (!String.valueOf(TotpEngine.DIGITS).equals(params.getOrDefault("digits", "6"))) {
+            return Entry.invalid(issuer, nickname, "Unsupported digits: " + params.get("digits"));
+        }
+        if (!String.valueOf(TotpEngine.TIME_STEP_SECONDS).equals(params.getOrDefault("period", "30"))) {
+            return Entry.invalid(issuer, nickname, "Unsupported period: " + params.get("period"));
+        }
+        String secret = normaliseSecret(params.get("secret"));
+        if (secret == null) {
+            return Entry.invalid(issuer, nickname, "Missing or invalid Base32 secret");
+        }
+        String image = params.get("image");
+        String logoUrl = image != null && image.startsWith("https://") ? image : null;
+        return new Entry(issuer, nickname, secret, logoUrl, null);
+    }
+
+    private static List<Entry> parseMigration(String uri) {
+        int queryStart = uri.indexOf('?');
+        String data = queryStart < 0 ? null : parseQuery(uri.substring(queryStart + 1)).get("data");
+        if (data == null) {
+            throw new IllegalArgumentException("Missing data parameter");
+        }
+        // URL-decoding turns a literal '+' into a space
+        byte[] payload = Base64.getDecoder().decode(data.replace(' ', '+'));
+
+        List<Entry> entries = new ArrayList<>();
+        ProtoReader reader = new ProtoReader(payload);
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            if (tag >>> 3 == 1 && (tag & 7) == 2) {
+                entries.add(parseOtpParameters(reader.readBytes()));
+            } else {
+                reader.skip(tag & 7);
+            }
+        }
+        return entries;
+    }
+
+    private static Entry parseOtpParameters(byte[] message) {
+        byte[] secret = null;
+        String name = "";
+        String issuer = "";
+        int algorithm = 0;
+        int digits = 0;
+        int type = 0;
+        ProtoReader reader = new ProtoReader(message);
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            switch (tag >>> 3) {
+                case 1 -> secret = reader.readBytes();
+                case 2 -> name = new String(reader.readBytes(), StandardCharsets.UTF_8);
+                case 3 -> issuer = new String(reader.readBytes(), StandardCharsets.UTF_8);
+                case 4 -> algorithm = reader.readVarint32();
+                case 5 -> digits = reader.readVarint32();
+                case 6 -> type = reader.readVarint32();
+                default -> reader.skip(tag & 7);
+            }
+        }
+
+        // Exporters put "issuer:name" in name as well as the issuer field
+        if (!issuer.isEmpty() && name.startsWith(issuer + ":")) {
+            name = name.substring(issuer.length() + 1).strip();
+        }
+        String issuerOrNull = issuer.isEmpty() ? null : issuer;
+
+        if (type != TYPE_TOTP) {
+            return Entry.invalid(issuerOrNull, name, "Unsupported type: " + (type == 1 ? "hotp" : "unspecified"));
+        }
+        if (algorithm != 0 && algorithm != ALGORITHM_SHA1) {
+            return Entry.invalid(issuerOrNull, name, "Unsupported algorithm");
+        }
+        if (digits != 0 && digits != DIGITS_SIX) {
+            return Entry.invalid(issuerOrNull, name, "Unsupported digits");
+        }
+        if (secret == null || secret.length == 0) {
+            return Entry.invalid(issuerOrNull, name, "Missing secret");
+        }
+        return new Entry(issuerOrNull, name, TotpEngine.encodeBase32(secret), null, null);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(pair.substring(0, eq).toLowerCase(Locale.ROOT), decode(pair.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Minimal protobuf wire-format reader; enough for MigrationPayload
+     */
+    private static final class ProtoReader {
+        private final byte[] data;
+        private int position;
+
+        ProtoReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasMore() {
+            return position < data.length;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed migration payload");
+        }
+
+        int readVarint32() {
+            return (int) readVarint();
+        }
+
+        byte[] readBytes() {
+            int length = readVarint32();
+            if (length < 0 || length > data.length - position) {
+                throw new IllegalArgumentException("Malformed migration payload");
+            }
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case 0 -> readVarint();
+                case 1 -> advance(8);
+                case 2 -> advance(readVarint32());
+                case 5 -> advance(4);
+                default -> throw new IllegalArgumentException("Malformed migration payload");
+            }
+        }
+
+        private void advance(int count) {
+            if (count < 0 || count > data.length - position) {
+                throw new IllegalArgumentException("Malformed migration payload");
+            }
+            position += count;
+        }
+
+        private byte next() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Malformed migration payload");
+            }
+            return data[position++];
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.twofactorauth.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.twofactorauth.model.Account;
+
+/**
+ * Bulk account import from otpauth:// URIs and authenticator export payloads.
+ *
+ * Lines are parsed as they are read, so the request body is never held as a
+ * whole. Entries are checked against the user's existing accounts and each
+ * other, secrets are encrypted (in parallel for large imports), and the
+ * caller stores all new accounts with one $push $each. Every entry gets its
+ * own result, so one bad line does not fail the import.
+ */
+@Service
+public class AccountImportService {
+
+    public static final String IMPORTED = "imported";
+    public static final String DUPLICATE = "duplicate";
+    public static final String INVALID = "invalid";
+    public static final String FAILED = "failed";
+
+    // Below this, encrypting on the request thread is faster than forking
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    @Value("${accounts.import.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${accounts.import.max-line-chars:65536}")
+    private int maxLineChars;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    public ImportBatch newBatch() {
+        return new ImportBatch(maxEntries);
+    }
+
+    /**
+     * Read and parse lines until the end of input or the entry limit
+     */
+    public ImportBatch read(Reader reader) throws IOException {
+        ImportBatch batch = newBatch();
+        StringBuilder line = new StringBuilder();
+        boolean tooLong = false;
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if (c == '\n') {
+                    if (!endLine(batch, line, tooLong)) {
+                        return batch;
+                    }
+                    line.setLength(0);
+                    tooLong = false;
+                } else if (line.length() < maxLineChars) {
+                    line.append(c);
+                } else {
+                    tooLong = true;
+                }
+            }
+        }
+        if (!line.isEmpty() || tooLong) {
+            endLine(batch, line, tooLong);
+        }
+        return batch;
+    }
+
+    /**
+     * Mark duplicates, encrypt the remaining secrets and return the accounts to store.
+     * May be called again after more lines were added; only new entries are processed.
+     * @param existing the user's current accounts; only issuer and nickname are used
+     */
+    public List<Account> prepare(ImportBatch batch, List<Account> existing) {
+        Set<String> labels = new HashSet<>();
+        for (Account account : existing) {
+            labels.add(label(account.getIssuer(), account.getNickname()));
+        }
+        // Entries accepted by earlier calls on the same batch (restore prepares chunk by chunk)
+        for (Item item : batch.items) {
+            if (IMPORTED.equals(item.status)) {
+                labels.add(label(item.entry.issuer(), item.entry.nickname()));
+            }
+        }
+
+        List<Item> pending = new ArrayList<>();
+        for (Item item : batch.items) {
+            if (item.status != null) {
+                continue;
+            }
+            if (!labels.add(label(item.entry.issuer(), item.entry.nickname()))) {
+                item.reject(DUPLICATE, "Account already exists");
+            } else {
+                pending.add(item);
+            }
+        }
+
+        String[] encrypted = new String[pending.size()];
+        IntStream indexes = IntStream.range(0, pending.size());
+        if (pending.size() >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> encrypted[i] = encryptionService.encrypt(pending.get(i).entry.secret()));
+
+        List<Account> accounts = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            Item item = pending.get(i);
+            if (encrypted[i] == null) {
+                item.reject(FAILED, "Could not encrypt secret");
+                continue;
+            }
+            item.status = IMPORTED;
+            accounts.add(new Account(item.entry.issuer(), encrypted[i], item.entry.nickname(), item.entry.logoUrl()));
+        }
+        // Only the encrypted copies are kept from here on
+        for (Item item : batch.items) {
+            if (item.entry.secret() != null) {
+                item.entry = item.entry.withoutSecret();
+            }
+        }
+        return accounts;
+    }
+
+    private boolean endLine(ImportBatch batch, StringBuilder line, boolean tooLong) {
+        if (tooLong) {
+            return batch.addInvalidLine("Line longer than " + maxLineChars + " characters");
+        }
+        return batch.addLine(line.toString());
+    }
+
+    private static String label(String issuer, String nickname) {
+        return (issuer == null ? "" : issuer) + '\u0000' + (nickname == null ? "" : nickname);
+    }
+
+    /**
+     * Entries parsed so far and their results. Not thread-safe; fed by one reader.
+     */
+    public static final class ImportBatch {
+        private final int maxEntries;
+        private final List<Item> items = new ArrayList<>();
+        private int lineNumber;
+        private boolean truncated;
+
+        private ImportBatch(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Parse one line
+         * @return false once the entry limit is reached; later lines are ignored
+         */
+        public boolean addLine(String line) {
+            lineNumber++;
+            for (AccountImportParser.Entry entry : AccountImportParser.parseLine(line)) {
+                if (!add(new Item(lineNumber, entry))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean addInvalidLine(String error) {
+            lineNumber++;
+            return add(new Item(lineNumber, AccountImportParser.Entry.invalid(null, null, error)));
+        }
+
+        private boolean add(Item item) {
+            if (items.size() >= maxEntries) {
+                truncated = true;
+                return false;
+            }
+            items.add(item);
+            return true;
+        }
+
+        /**
+         * Response body: counts per status and one result per entry
+         */
+        public Map<String, Object> toBody() {
+            Map<String, Integer> counts = new HashMap<>();
+            List<Map<String, Object>> results = new ArrayList<>(items.size());
+            for (Item item : items) {
+                counts.merge(item.status, 1, Integer::sum);
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("line", item.line);
+                result.put("issuer", item.entry.issuer());
+                result.put("nickname", item.entry.nickname());
+                result.put("status", item.status);
+                if (item.error != null) {
+                    result.put("error", item.error);
+                }
+                results.add(result);
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("imported", counts.getOrDefault(IMPORTED, 0));
+            body.put("duplicates", counts.getOrDefault(DUPLICATE, 0));
+            body.put("invalid", counts.getOrDefault(INVALID, 0));
+            body.put("failed", counts.getOrDefault(FAILED, 0));
+            body.put("truncated", truncated);
+            body.put("results", results);
+            return body;
+        }
+    }
+
+    private static final class Item {
+        final int line;
+        AccountImportParser.Entry entry;
+        String status;
+        String error;
+
+        Item(int line, AccountImportParser.Entry entry) {
+            this.line = line;
+            this.entry = entry;
+            if (entry.error() != null) {
+                reject(INVALID, entry.error());
+            }
+        }
+
+        void reject(String status, String error) {
+            this.status = status;
+            this.error = error;
+        }
+    }
+}
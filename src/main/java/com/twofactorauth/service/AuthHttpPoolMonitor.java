@@ -0,0 +1,67 @@
+package com.twofactorauth.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.twofactorauth.config.AuthHttpClientConfig;
+
+/**
+ * Reports utilisation of the outbound auth server connection pool.
+ */
+@Component
+public class AuthHttpPoolMonitor {
+
+    @Autowired
+    private PoolingHttpClientConnectionManager authConnectionManager;
+
+    @Autowired
+    private AuthHttpClientConfig authHttpClientConfig;
+
+    public int getLeased() {
+        return authConnectionManager.getTotalStats().getLeased();
+    }
+
+    public int getAvailable() {
+        return authConnectionManager.getTotalStats().getAvailable();
+    }
+
+    public int getPending() {
+        return authConnectionManager.getTotalStats().getPending();
+    }
+
+    public int getMax() {
+        return authConnectionManager.getTotalStats().getMax();
+    }
+
+    /**
+     * Snapshot of total and per-route pool statistics.
+     * In HTTP_2 mode the JDK client manages its own connections and the pool is unused.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", authHttpClientConfig.isHttp2() ? "HTTP_2" : "HTTP_1_1");
+        stats.put("total", toMap(authConnectionManager.getTotalStats()));
+
+        Map<String, Object> routes = new HashMap<>();
+        for (HttpRoute route : authConnectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), toMap(authConnectionManager.getStats(route)));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+
+    private static Map<String, Object> toMap(PoolStats poolStats) {
+        return Map.of(
+            "leased", poolStats.getLeased(),
+            "available", poolStats.getAvailable(),
+            "pending", poolStats.getPending(),
+            "max", poolStats.getMax()
+        );
+    }
+}
@@ -0,0 +1,166 @@
+package com.twofactorauth.service;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breaker and bulkhead shared by every call to the auth server, on
+ * both stacks.
+ *
+ * The breaker opens when too many recent calls failed (network errors, 5xx)
+ * or were slow, answers AuthServerUnavailableException while open, and after
+ * auth.resilience.open-seconds lets a few probe calls through (half-open) to
+ * decide whether to close again. A 4xx is the auth server answering, so it
+ * does not count as a failure.
+ *
+ * The bulkhead caps in-flight calls and rejects the excess immediately rather
+ * than queueing, so a slow auth server holds at most that many request
+ * threads. State transitions are logged and counted; the breaker and bulkhead
+ * meters are bound in MetricsConfig.
+ */
+@Component
+public class AuthServerGuard {
+
+    public static final String NAME = "auth-server";
+
+    @Value("${auth.resilience.enabled:true}")
+    private boolean enabled;
+
+    @Value("${auth.resilience.failure-rate-threshold:50}")
+    private float failureRateThreshold;
+
+    @Value("${auth.resilience.slow-call-ms:2000}")
+    private long slowCallMs;
+
+    @Value("${auth.resilience.slow-call-rate-threshold:80}")
+    private float slowCallRateThreshold;
+
+    @Value("${auth.resilience.sliding-window-size:50}")
+    private int slidingWindowSize;
+
+    @Value("${auth.resilience.minimum-calls:20}")
+    private int minimumCalls;
+
+    @Value("${auth.resilience.open-seconds:10}")
+    private long openSeconds;
+
+    @Value("${auth.resilience.half-open-calls:5}")
+    private int halfOpenCalls;
+
+    @Value("${auth.resilience.max-concurrent-calls:100}")
+    private int maxConcurrentCalls;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    private CircuitBreakerRegistry circuitBreakers;
+    private BulkheadRegistry bulkheads;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+
+    @PostConstruct
+    public void init() {
+        CircuitBreakerConfig breakerConfig = CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumCalls)
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(Duration.ofMillis(slowCallMs))
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .waitDurationInOpenState(Duration.ofSeconds(openSeconds))
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .permittedNumberOfCallsInHalfOpenState(halfOpenCalls)
+                .recordException(AuthServerGuard::isFailure)
+                .ignoreExceptions(BulkheadFullException.class)
+                .build();
+        // No waiting for a permit: the reactive stack must not block
+        BulkheadConfig bulkheadConfig = BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build();
+
+        circuitBreakers = CircuitBreakerRegistry.of(breakerConfig);
+        bulkheads = BulkheadRegistry.of(bulkheadConfig);
+        circuitBreaker = circuitBreakers.circuitBreaker(NAME);
+        bulkhead = bulkheads.bulkhead(NAME);
+
+        circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            System.out.println("Auth server circuit breaker: " + event.getStateTransition());
+            serviceMetrics.circuitTransition(NAME, event.getStateTransition().getFromState().name(),
+                    event.getStateTransition().getToState().name());
+        });
+    }
+
+    // A 4xx means the auth server answered; everything else is the dependency failing
+    private static boolean isFailure(Throwable e) {
+        if (e instanceof HttpClientErrorException) {
+            return false;
+        }
+        return !(e instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError());
+    }
+
+    /**
+     * Run a blocking auth server call through the breaker and bulkhead
+     * @throws AuthServerUnavailableException if the call was not attempted
+     */
+    public <T> T call(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        try {
+            return CircuitBreaker.decorateSupplier(circuitBreaker, Bulkhead.decorateSupplier(bulkhead, call)).get();
+        } catch (CallNotPermittedException e) {
+            throw circuitOpen();
+        } catch (BulkheadFullException e) {
+            throw bulkheadFull();
+        }
+    }
+
+    /**
+     * Reactive counterpart of {@link #call}; the call is subscribed only if permitted
+     */
+    public <T> Mono<T> guard(Mono<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        return call.transformDeferred(BulkheadOperator.of(bulkhead))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .onErrorMap(CallNotPermittedException.class, e -> circuitOpen())
+                .onErrorMap(BulkheadFullException.class, e -> bulkheadFull());
+    }
+
+    private AuthServerUnavailableException circuitOpen() {
+        return new AuthServerUnavailableException("Auth server circuit breaker is open", openSeconds);
+    }
+
+    private AuthServerUnavailableException bulkheadFull() {
+        return new AuthServerUnavailableException("Too many concurrent auth server calls", 1);
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public BulkheadRegistry getBulkheads() {
+        return bulkheads;
+    }
+}
@@ -0,0 +1,19 @@
+package com.twofactorauth.service;
+
+/**
+ * Thrown instead of calling the auth server while its circuit breaker is
+ * open or its bulkhead is full. Answered with 503 and a Retry-After header.
+ */
+public class AuthServerUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public AuthServerUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,303 @@
+package com.twofactorauth.service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes each user's code set to their open Server-Sent Event streams once per time step.
+ *
+ * A single scheduler fires at every step boundary and for heartbeats. Codes
+ * are computed once per user (through the per-step code cache) and serialized
+ * once, then queued to every stream of that user. Each stream has a small
+ * bounded queue drained on the dispatch pool; a stream whose queue overflows
+ * is a slow consumer and is closed.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CodeStreamService {
+
+    @Value("${codes.stream.max-per-user:5}")
+    private int maxStreamsPerUser;
+
+    @Value("${codes.stream.max-streams:10000}")
+    private int maxStreams;
+
+    @Value("${codes.stream.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${codes.stream.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${codes.stream.queue-capacity:4}")
+    private int queueCapacity;
+
+    @Value("${codes.stream.dispatch-threads:8}")
+    private int dispatchThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Autowired
+    private AccountCodeService accountCodeService;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final LongAdder slowConsumerEvictions = new LongAdder();
+    private final LongAdder rejectedStreams = new LongAdder();
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService dispatcher;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "code-stream-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Sends block on slow sockets; virtual threads make that cheap
+        dispatcher = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("code-stream-dispatch-", 0).factory())
+                : Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+                    Thread thread = new Thread(runnable, "code-stream-dispatch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        // Fire just after each boundary so the new step is current
+        long stepMillis = TotpEngine.TIME_STEP_SECONDS * 1000;
+        long initialDelay = TotpEngine.millisRemainingInStep(System.currentTimeMillis()) + 50;
+        scheduler.scheduleAtFixedRate(this::onStepBoundary, initialDelay, stepMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(Subscriber::close));
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Open a code stream for the user.
+     * @param username username from the token
+     * @param token bearer token, re-checked at every step boundary
+     * @return the emitter, or null if the user or the service is at its stream limit
+     */
+    public SseEmitter subscribe(String username, String token) {
+        if (activeStreams.incrementAndGet() > maxStreams) {
+            activeStreams.decrementAndGet();
+            rejectedStreams.increment();
+            return null;
+        }
+
+        Subscriber subscriber = new Subscriber(username, token, new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes)));
+        AtomicBoolean added = new AtomicBoolean();
+        subscribers.compute(username, (key, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            if (set.size() < maxStreamsPerUser) {
+                set.add(subscriber);
+                added.set(true);
+            }
+            return set.isEmpty() ? null : set;
+        });
+        if (!added.get()) {
+            activeStreams.decrementAndGet();
+            rejectedStreams.increment();
+            return null;
+        }
+
+        subscriber.emitter.onCompletion(subscriber::close);
+        subscriber.emitter.onTimeout(subscriber::close);
+        subscriber.emitter.onError(e -> subscriber.close());
+
+        // First event right away rather than at the next boundary
+        dispatch(() -> publish(username, Set.of(subscriber)));
+        return subscriber.emitter;
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    public long getSlowConsumerEvictions() {
+        return slowConsumerEvictions.sum();
+    }
+
+    public long getRejectedStreams() {
+        return rejectedStreams.sum();
+    }
+
+    /**
+     * Snapshot of stream counters
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "activeStreams", getActiveStreams(),
+            "users", subscribers.size(),
+            "slowConsumerEvictions", getSlowConsumerEvictions(),
+            "rejectedStreams", getRejectedStreams()
+        );
+    }
+
+    private void onStepBoundary() {
+        for (String username : subscribers.keySet()) {
+            dispatch(() -> publish(username, subscribers.get(username)));
+        }
+    }
+
+    private void sendHeartbeats() {
+        StreamEvent heartbeat = new StreamEvent(null, null, "heartbeat");
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.enqueue(heartbeat)));
+    }
+
+    private void publish(String username, Set<Subscriber> set) {
+        if (set == null || set.isEmpty()) {
+            return;
+        }
+
+        StreamEvent event;
+        try {
+            AccountCodeService.CodeSet codeSet = accountCodeService.getCurrentCodes(username);
+            String json = objectMapper.writeValueAsString(AccountCodeService.toCurrentCodesBody(codeSet.codes()));
+            event = new StreamEvent("codes", Long.toString(codeSet.step()), json);
+        } catch (JsonProcessingException | RuntimeException e) {
+            System.out.println("Error publishing codes for user " + username + ": " + e.getMessage());
+            return;
+        }
+
+        for (Subscriber subscriber : set) {
+            // Token validation is cached, so this is normally an in-memory check
+            String tokenUser;
+            try {
+                tokenUser = jwtService.extractUsername(subscriber.token);
+            } catch (AuthServerUnavailableException e) {
+                // Cannot re-check the token right now; skip this step rather than drop the stream
+                continue;
+            }
+            if (!username.equals(tokenUser)) {
+                subscriber.close();
+                continue;
+            }
+            subscriber.enqueue(event);
+        }
+    }
+
+    private void dispatch(Runnable task) {
+        try {
+            dispatcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * One queued event. A null name means an SSE comment line.
+     */
+    private record StreamEvent(String name, String id, String data) {
+        SseEmitter.SseEventBuilder toBuilder() {
+            if (name == null) {
+                return SseEmitter.event().comment(data);
+            }
+            return SseEmitter.event().name(name).id(id).data(data);
+        }
+    }
+
+    private final class Subscriber {
+        private final String username;
+        private final String token;
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<StreamEvent> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Subscriber(String username, String token, SseEmitter emitter) {
+            this.username = username;
+            this.token = token;
+            this.emitter = emitter;
+        }
+
+        void enqueue(StreamEvent event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                System.out.println("Closing slow code stream for user: " + username);
+                slowConsumerEvictions.increment();
+                close();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                dispatch(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                StreamEvent event;
+                while (!closed.get() && (event = queue.poll()) != null) {
+                    emitter.send(event.toBuilder());
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            } finally {
+                draining.set(false);
+            }
+            if (!queue.isEmpty() && !closed.get()) {
+                scheduleDrain();
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            queue.clear();
+            subscribers.computeIfPresent(username, (key, set) -> {
+                set.remove(this);
+                return set.isEmpty() ? null : set;
+            });
+            activeStreams.decrementAndGet();
+            try {
+                emitter.complete();
+            } catch (IllegalStateException e) {
+                // Already completed
+            }
+        }
+    }
+}
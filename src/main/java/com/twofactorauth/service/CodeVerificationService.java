@@ -0,0 +1,76 @@
+package com.twofactorauth.service;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.repo.UserTotpRepository;
+
+/**
+ * Verifies codes submitted by relying applications against a stored account.
+ */
+@Service
+public class CodeVerificationService {
+
+    @Value("${totp.verify.window:1}")
+    private int window;
+
+    @Autowired
+    private UserTotpRepository userTotpRepository;
+
+    @Autowired
+    private AccountCodeService accountCodeService;
+
+    @Autowired
+    private TotpDriftTracker driftTracker;
+
+    /**
+     * Load the account and verify the code
+     * @return null if the user has no such account
+     */
+    public Result verify(String username, String issuer, String nickname, String code) {
+        Optional<Account> account = userTotpRepository.findAccount(username, issuer, nickname);
+        return account.map(value -> verify(username, value, code)).orElse(null);
+    }
+
+    /**
+     * Verify the code against an already loaded account
+     */
+    public Result verify(String username, Account account, String code) {
+        if (account.getSecret() == null || account.getSecret().isEmpty()) {
+            return Result.INVALID;
+        }
+
+        String accountKey = TotpDriftTracker.accountKey(username, account.getIssuer(), account.getNickname());
+        long now = System.currentTimeMillis();
+        long matchedStep;
+        try {
+            TotpEngine.Generator generator = accountCodeService.prepareSecret(
+                    account.getSecret(), ByteBuffer.allocate(AccountCodeService.SECRET_BUFFER_BYTES));
+            matchedStep = TotpService.verifyCode(generator, code, now, window, driftTracker.expectedDrift(accountKey));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            System.out.println("Error verifying code: " + e.getMessage());
+            return Result.INVALID;
+        }
+        if (matchedStep < 0) {
+            return Result.INVALID;
+        }
+        return driftTracker.accept(accountKey, matchedStep, TotpEngine.timeStep(now)) ? Result.VALID : Result.REPLAYED;
+    }
+
+    public enum Result {
+        VALID,
+        INVALID,
+        /** Correct code, but a code for the same or a later step was already accepted */
+        REPLAYED;
+
+        public boolean isValid() {
+            return this == VALID;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.twofactorauth.service;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of initialized Cipher or Mac instances.
+ *
+ * Getting and keying a JCE instance costs more than processing the few
+ * hundred bytes these services handle, so instances are reused. A pool rather
+ * than a ThreadLocal keeps reuse working on virtual threads. When more callers
+ * than the capacity run at once, extra instances are created and dropped.
+ */
+final class CryptoPool<T> {
+
+    /** Creates one keyed instance ready for use */
+    @FunctionalInterface
+    interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    static final int DEFAULT_CAPACITY = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Factory<T> factory;
+
+    CryptoPool(Factory<T> factory) {
+        this.idle = new ArrayBlockingQueue<>(DEFAULT_CAPACITY);
+        this.factory = factory;
+    }
+
+    T acquire() throws GeneralSecurityException {
+        T instance = idle.poll();
+        return instance != null ? instance : factory.create();
+    }
+
+    /**
+     * Return an instance after a successful doFinal, which leaves it ready for
+     * the next message. Instances that threw must not be returned.
+     */
+    void release(T instance) {
+        idle.offer(instance);
+    }
+}
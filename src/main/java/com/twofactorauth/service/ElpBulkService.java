@@ -0,0 +1,379 @@
+package com.twofactorauth.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import com.twofactorauth.model.ElpMetadata;
+import com.twofactorauth.model.UserIdView;
+import com.twofactorauth.repo.UserTotpRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Generates ELP files for many users at once and streams them as a ZIP.
+ *
+ * Local identities are resolved with one $in query per batch. Each user's
+ * remote lookup and file generation then runs on the worker pool, and the
+ * finished files pass through a bounded queue to the writing thread, so at
+ * most a couple of batches are held in memory. The writer inserts each
+ * batch's metadata with one unordered bulk write and adds to the ZIP only the
+ * files whose metadata was stored; a file without metadata would never
+ * validate. A failure affects only that user and is listed in failures.json,
+ * the last entry of the ZIP.
+ *
+ * One job runs at a time. Progress is kept per job id for polling while the
+ * ZIP downloads and for job-retention-minutes afterwards.
+ */
+@Service
+public class ElpBulkService {
+
+    public static final String MANIFEST_ENTRY = "failures.json";
+
+    /** 0 means one worker per available processor */
+    @Value("${elp.bulk.parallelism:0}")
+    private int parallelism;
+
+    @Value("${elp.bulk.batch-size:500}")
+    private int batchSize;
+
+    @Value("${elp.bulk.max-users:10000}")
+    private int maxUsers;
+
+    @Value("${elp.bulk.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    @Autowired
+    private ElpService elpService;
+
+    @Autowired
+    private ElpMetadataLookup elpMetadataLookup;
+
+    @Autowired
+    private UserTotpRepository userTotpRepository;
+
+    @Autowired
+    private UserFetchService userFetchService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Semaphore running = new Semaphore(1);
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "elp-bulk-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdownNow();
+    }
+
+    public int getMaxUsers() {
+        return maxUsers;
+    }
+
+    /**
+     * Register a job for the given usernames; blank and repeated names are dropped.
+     * The caller must call {@link #release} once it is done with the job.
+     * @return the job, or null if another job is still running
+     */
+    public Job startJob(Collection<String> usernames) {
+        if (!running.tryAcquire()) {
+            return null;
+        }
+        purgeFinishedJobs();
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String username : usernames) {
+            if (username != null && !username.isBlank()) {
+                distinct.add(username.trim());
+            }
+        }
+        Job job = new Job(UUID.randomUUID().toString(), List.copyOf(distinct));
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    public Job getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Run a job started with {@link #startJob}, writing the ZIP to out.
+     * @throws IOException if the client went away; the job is then cancelled
+     */
+    public void run(Job job, OutputStream out) throws IOException {
+        BlockingQueue<Outcome> outcomes = new ArrayBlockingQueue<>(batchSize * 2);
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            List<String> usernames = job.usernames;
+            for (int from = 0; from < usernames.size(); from += batchSize) {
+                List<String> chunk = usernames.subList(from, Math.min(usernames.size(), from + batchSize));
+                Map<String, UserIdView> identities = new HashMap<>();
+                for (UserIdView identity : userTotpRepository.findIdentitiesByUsernameIn(chunk)) {
+                    identities.put(identity.getUsername(), identity);
+                }
+                for (String username : chunk) {
+                    UserIdView identity = identities.get(username);
+                    workers.execute(() -> deliver(job, outcomes, generate(job, username, identity)));
+                }
+            }
+
+            List<Outcome> batch = new ArrayList<>(batchSize);
+            int received = 0;
+            while (received < usernames.size()) {
+                Outcome outcome = outcomes.poll(200, TimeUnit.MILLISECONDS);
+                if (outcome == null) {
+                    // Workers are slow (remote lookups): store and send what is ready
+                    writeBatch(job, zip, batch);
+                    continue;
+                }
+                received++;
+                if (outcome.result() == null) {
+                    job.fail(outcome.username(), outcome.error());
+                } else {
+                    batch.add(outcome);
+                    if (batch.size() >= batchSize) {
+                        writeBatch(job, zip, batch);
+                    }
+                }
+            }
+            writeBatch(job, zip, batch);
+            job.finish("COMPLETED");
+
+            zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+            zip.write(objectMapper.writeValueAsBytes(job.toManifest()));
+            zip.closeEntry();
+            zip.finish();
+            out.flush();
+            System.out.println("Bulk ELP job " + job.getId() + " completed: " + job.generated.get()
+                    + " generated, " + job.failed.get() + " failed");
+        } catch (IOException e) {
+            job.finish("CANCELLED");
+            System.out.println("Bulk ELP job " + job.getId() + " cancelled: " + e.getMessage());
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish("CANCELLED");
+            throw new InterruptedIOException("Bulk ELP job interrupted");
+        } catch (RuntimeException e) {
+            job.finish("FAILED");
+            System.out.println("Bulk ELP job " + job.getId() + " failed: " + e.getMessage());
+            throw e;
+        } finally {
+            release(job);
+        }
+    }
+
+    /**
+     * Free the running slot taken by {@link #startJob}. A job that never got
+     * to run (e.g. the client went away first) is cancelled. Safe to call
+     * more than once.
+     */
+    public void release(Job job) {
+        if (!job.isDone()) {
+            job.finish("CANCELLED");
+        }
+        if (job.holdsSlot.compareAndSet(true, false)) {
+            running.release();
+        }
+    }
+
+    // Runs on a worker; never throws, so one user cannot affect the others
+    private Outcome generate(Job job, String username, UserIdView identity) {
+        if (job.isDone()) {
+            return null;
+        }
+        if (identity == null) {
+            return Outcome.failed(username, "User not found");
+        }
+        try {
+            Map<String, Object> userData = userFetchService.fetchUserByUsername(username);
+            if (userData == null) {
+                return Outcome.failed(username, "Failed to fetch user details");
+            }
+            String email = userFetchService.getEmail(userData);
+            return new Outcome(username, elpService.createElpFile(identity.getId(), username, email), null);
+        } catch (Exception e) {
+            return Outcome.failed(username, "Failed to generate ELP file: " + e.getMessage());
+        }
+    }
+
+    // Blocks while the writer is behind, which bounds memory; gives up once the job ends
+    private static void deliver(Job job, BlockingQueue<Outcome> outcomes, Outcome outcome) {
+        try {
+            while (outcome != null && !job.isDone()) {
+                if (outcomes.offer(outcome, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch(Job job, ZipOutputStream zip, List<Outcome> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<ElpMetadata> metadata = new ArrayList<>(batch.size());
+        for (Outcome outcome : batch) {
+            metadata.add(outcome.result().getMetadata());
+        }
+
+        Set<Integer> rejected = new HashSet<>();
+        String rejection = null;
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ElpMetadata.class)
+                    .insert(metadata)
+                    .execute();
+        } catch (BulkOperationException e) {
+            // Unordered: everything except the listed documents was inserted
+            for (BulkWriteError error : e.getErrors()) {
+                rejected.add(error.getIndex());
+            }
+            rejection = "Could not store ELP metadata";
+        } catch (DataAccessException e) {
+            for (int i = 0; i < batch.size(); i++) {
+                rejected.add(i);
+            }
+            rejection = "Could not store ELP metadata: " + e.getMessage();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Outcome outcome = batch.get(i);
+            if (rejected.contains(i)) {
+                job.fail(outcome.username(), rejection);
+                continue;
+            }
+            elpMetadataLookup.added(outcome.result().getMetadata());
+            zip.putNextEntry(new ZipEntry(outcome.result().getFilename()));
+            zip.write(outcome.result().getFileContent());
+            zip.closeEntry();
+            job.generated.incrementAndGet();
+        }
+        zip.flush();
+        batch.clear();
+    }
+
+    private void purgeFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(jobRetentionMinutes);
+        jobs.values().removeIf(job -> job.isDone() && job.finishedAt < cutoff);
+    }
+
+    private record Outcome(String username, ElpService.ELPResult result, String error) {
+        static Outcome failed(String username, String error) {
+            return new Outcome(username, null, error);
+        }
+    }
+
+    /**
+     * State of one bulk generation; counters are updated while the ZIP streams
+     */
+    public static final class Job {
+        private final String id;
+        private final List<String> usernames;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicInteger generated = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<Map<String, String>> failures = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean holdsSlot = new AtomicBoolean(true);
+        private volatile String state = "RUNNING";
+        private volatile long finishedAt;
+
+        private Job(String id, List<String> usernames) {
+            this.id = id;
+            this.usernames = usernames;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getTotal() {
+            return usernames.size();
+        }
+
+        boolean isDone() {
+            return !"RUNNING".equals(state);
+        }
+
+        void fail(String username, String error) {
+            failures.add(Map.of("username", username, "error", error));
+            failed.incrementAndGet();
+        }
+
+        void finish(String finalState) {
+            finishedAt = System.currentTimeMillis();
+            state = finalState;
+        }
+
+        /**
+         * Progress for polling while the ZIP downloads
+         */
+        public Map<String, Object> toProgress() {
+            Map<String, Object> progress = new LinkedHashMap<>();
+            progress.put("jobId", id);
+            progress.put("state", state);
+            progress.put("total", usernames.size());
+            progress.put("generated", generated.get());
+            progress.put("failed", failed.get());
+            progress.put("elapsedMs", (isDone() ? finishedAt : System.currentTimeMillis()) - startedAt);
+            return progress;
+        }
+
+        Map<String, Object> toManifest() {
+            Map<String, Object> manifest = toProgress();
+            synchronized (failures) {
+                manifest.put("failures", List.copyOf(failures));
+            }
+            return manifest;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.twofactorauth.service;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Projections;
+import com.twofactorauth.model.ElpMetadata;
+import com.twofactorauth.repo.ElpMetadataRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Front for {@link ElpMetadataRepository#findByElpId} on the ELP login path.
+ *
+ * A Bloom filter of every known elpId answers "definitely unknown" without a
+ * database round trip, and a small LRU cache serves repeat logins with known
+ * IDs. The filter is built from elp_metadata in the background at startup
+ * (lookups go to Mongo until it is ready), fed by every local insert, and
+ * rebuilt periodically.
+ *
+ * Other instances insert IDs this filter has not seen. On a filter miss the
+ * filter therefore catches up on records inserted since its last refresh with
+ * one _id range query, at most once per catch-up interval; an ID still missing
+ * after that is rejected. Misses in between, while another thread catches up
+ * or before the interval has passed, go to the indexed findByElpId instead,
+ * up to miss-lookups-per-interval of them; beyond that they are rejected. An
+ * unknown-ID flood thus costs one range query plus a bounded number of point
+ * lookups per interval, and no login waits on a catch-up it did not start.
+ */
+@Component
+public class ElpMetadataLookup {
+
+    private static final String COLLECTION = "elp_metadata";
+
+    // ObjectIds from other instances can lag by clock skew; re-reading a
+    // minute of records is harmless because adding an ID twice is a no-op
+    private static final long CATCH_UP_SLACK_SECONDS = 60;
+
+    @Value("${elp.filter.enabled:true}")
+    private boolean filterEnabled;
+
+    @Value("${elp.filter.expected-ids:1000000}")
+    private long expectedIds;
+
+    @Value("${elp.filter.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${elp.filter.rebuild-minutes:60}")
+    private long rebuildMinutes;
+
+    @Value("${elp.filter.catch-up-interval-ms:1000}")
+    private long catchUpIntervalMs;
+
+    @Value("${elp.filter.miss-lookups-per-interval:50}")
+    private int missLookupsPerInterval;
+
+    @Value("${elp.metadata-cache.max-entries:1000}")
+    private int cacheMaxEntries;
+
+    @Autowired
+    private ElpMetadataRepository elpMetadataRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder repositoryLookups = new LongAdder();
+
+    // Current filter, null until the first build completes
+    private volatile BloomFilter filter;
+    // Filter being rebuilt; local inserts go to both while it is non-null
+    private volatile BloomFilter building;
+    private final AtomicLong lastCatchUpMillis = new AtomicLong();
+    private final AtomicLong newestSeenSeconds = new AtomicLong();
+    // Database lookups for filter misses since the last catch-up
+    private final AtomicInteger missLookups = new AtomicInteger();
+
+    private final LinkedHashMap<String, ElpMetadata> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ElpMetadata> eldest) {
+            return size() > cacheMaxEntries;
+        }
+    };
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!filterEnabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elp-filter-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebuild, 0, rebuildMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Metadata for the ELP id, or null if no such record exists
+     */
+    public ElpMetadata findByElpId(String elpId) {
+        ElpMetadata cached;
+        synchronized (cache) {
+            cached = cache.get(elpId);
+        }
+        if (cached != null) {
+            cacheHits.increment();
+            return cached;
+        }
+
+        if (!mightExist(elpId)) {
+            filterRejections.increment();
+            return null;
+        }
+
+        repositoryLookups.increment();
+        ElpMetadata metadata = elpMetadataRepository.findByElpId(elpId);
+        if (metadata != null) {
+            synchronized (cache) {
+                cache.put(elpId, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Record a newly saved ELP so it is found immediately
+     */
+    public void added(ElpMetadata metadata) {
+        BloomFilter current = filter;
+        BloomFilter next = building;
+        if (current != null) {
+            current.put(metadata.getElpId());
+        }
+        if (next != null) {
+            next.put(metadata.getElpId());
+        }
+    }
+
+    public long getFilterRejections() {
+        return filterRejections.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getRepositoryLookups() {
+        return repositoryLookups.sum();
+    }
+
+    /**
+     * Snapshot of filter and cache counters
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        BloomFilter current = filter;
+        stats.put("filterReady", current != null);
+        stats.put("filterBits", current == null ? 0 : current.bitCount());
+        stats.put("filterRejections", getFilterRejections());
+        stats.put("cacheHits", getCacheHits());
+        stats.put("repositoryLookups", getRepositoryLookups());
+        synchronized (cache) {
+            stats.put("cacheSize", cache.size());
+        }
+        return stats;
+    }
+
+    private boolean mightExist(String elpId) {
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(elpId)) {
+            return true;
+        }
+        // Possibly inserted by another instance since the last refresh
+        long now = System.currentTimeMillis();
+        long last = lastCatchUpMillis.get();
+        if (now - last >= catchUpIntervalMs && lastCatchUpMillis.compareAndSet(last, now)) {
+            missLookups.set(0);
+            try {
+                Loaded loaded = load(current, newestSeenSeconds.get() - CATCH_UP_SLACK_SECONDS);
+                newestSeenSeconds.accumulateAndGet(loaded.newestSeconds(), Math::max);
+            } catch (RuntimeException e) {
+                System.out.println("ELP filter catch-up failed, falling back to database: " + e.getMessage());
+                return true;
+            }
+            // Everything inserted up to now has been added
+            return current.mightContain(elpId);
+        }
+        return missLookups.incrementAndGet() <= missLookupsPerInterval;
+    }
+
+    private void rebuild() {
+        long started = System.currentTimeMillis();
+        BloomFilter next = new BloomFilter(expectedIds, falsePositiveRate);
+        building = next;
+        try {
+            Loaded loaded = load(next, 0);
+            filter = next;
+            newestSeenSeconds.accumulateAndGet(loaded.newestSeconds(), Math::max);
+            System.out.println("ELP filter rebuilt: " + loaded.count() + " ids in "
+                    + (System.currentTimeMillis() - started) + " ms");
+            if (loaded.count() > expectedIds) {
+                System.out.println("WARNING: ELP filter holds more ids than elp.filter.expected-ids ("
+                        + expectedIds + "); false positives will rise");
+            }
+        } catch (RuntimeException e) {
+            // Keep the previous filter (or none); lookups still fall back to the database
+            System.out.println("ELP filter rebuild failed: " + e.getMessage());
+        } finally {
+            building = null;
+        }
+    }
+
+    // Adds the elpIds of records whose ObjectId timestamp is at or after sinceSeconds
+    private Loaded load(BloomFilter target, long sinceSeconds) {
+        Document query = sinceSeconds <= 0
+                ? new Document()
+                : new Document("_id", new Document("$gte", new ObjectId(new Date(sinceSeconds * 1000))));
+        long count = 0;
+        long newest = 0;
+        for (Document document : mongoTemplate.getCollection(COLLECTION)
+                .find(query)
+                .projection(Projections.include("elpId"))) {
+            String elpId = document.getString("elpId");
+            if (elpId != null) {
+                target.put(elpId);
+                count++;
+            }
+            if (document.get("_id") instanceof ObjectId id) {
+                newest = Math.max(newest, id.getTimestamp());
+            }
+        }
+        return new Loaded(count, newest);
+    }
+
+    private record Loaded(long count, long newestSeconds) {}
+}
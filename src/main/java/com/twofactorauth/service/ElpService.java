@@ -1,6 +1,7 @@
 package com.twofactorauth.service;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -16,7 +17,11 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.annotation.PostConstruct;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.twofactorauth.model.ElpMetadata;
 import com.twofactorauth.repo.ElpMetadataRepository;
 
@@ -29,12 +34,33 @@ public class ElpService {
     @Value("${elp.hmac.key")
     private String hmacKey;
 
+    @Value("${elp.max-file-bytes:16384}")
+    private int maxFileBytes;
+
     private static final String AES_ALGORITHM = "AES";
     private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int HMAC_LENGTH = 32;
+
+    // Immutable and thread-safe, so shared by all requests
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader ELP_READER = OBJECT_MAPPER.readerFor(ElpData.class);
+    private static final ObjectWriter ELP_WRITER = OBJECT_MAPPER.writerFor(ElpData.class);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Keys are derived once in init(); JCE instances are keyed once and reused
+    private SecretKeySpec aesKey;
+    private SecretKeySpec macKey;
+    private final CryptoPool<Cipher> encryptCiphers = new CryptoPool<>(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final CryptoPool<Cipher> decryptCiphers = new CryptoPool<>(() -> newCipher(Cipher.DECRYPT_MODE));
+    private final CryptoPool<Mac> macs = new CryptoPool<>(this::newMac);
 
     // Replace in-memory storage with MongoDB repository
     @Autowired
     private ElpMetadataRepository elpMetadataRepository;
+
+    // Filter and cache in front of elpMetadataRepository.findByElpId
+    @Autowired
+    private ElpMetadataLookup elpMetadataLookup;
     
     // Constructor to log key information
     public ElpService() {
@@ -43,6 +69,14 @@ public class ElpService {
         System.out.println("===============================================");
     }
 
+    @PostConstruct
+    public void init() {
+        aesKey = new SecretKeySpec(deriveKey(encryptionKey), AES_ALGORITHM);
+        macKey = new SecretKeySpec(deriveKey(hmacKey), HMAC_ALGORITHM);
+        System.out.println("ELP keys derived: AES " + aesKey.getEncoded().length + " bytes, HMAC "
+                + macKey.getEncoded().length + " bytes");
+    }
+
     /**
      * Generate ELP file
      * @param userId User ID
@@ -52,6 +86,23 @@ public class ElpService {
      */
     public ELPResult generateElpFile(String userId, String username, String email) 
             throws GeneralSecurityException, IOException {
+        ELPResult result = createElpFile(userId, username, email);
+
+        // Store metadata in MongoDB instead of the local map
+        elpMetadataRepository.save(result.getMetadata());
+        elpMetadataLookup.added(result.getMetadata());
+        System.out.println("Stored metadata for ELP ID: " + result.getMetadata().getElpId() + " in MongoDB");
+
+        return result;
+    }
+
+    /**
+     * Build an ELP file without storing its metadata. The file only validates
+     * once {@link ELPResult#getMetadata()} has been saved; bulk generation
+     * uses this to insert metadata in batches.
+     */
+    public ELPResult createElpFile(String userId, String username, String email)
+            throws GeneralSecurityException, IOException {
         System.out.println("Generating ELP file for user ID: " + userId);
         
         // Generate unique ELP ID
@@ -60,33 +111,28 @@ public class ElpService {
 
         // Create ELP data
         ElpData elpData = new ElpData(userId, username, email, elpId);
-        String elpJson = new ObjectMapper().writeValueAsString(elpData);
+        byte[] elpJson = ELP_WRITER.writeValueAsBytes(elpData);
         System.out.println("Created ELP data JSON");
 
-        // Encrypt the ELP data
-        byte[] encryptedData = encrypt(elpJson.getBytes(StandardCharsets.UTF_8));
-        System.out.println("Encrypted ELP data: " + encryptedData.length + " bytes");
+        // Encrypted data followed by the HMAC of the plaintext, written into one array
+        Cipher cipher = encryptCiphers.acquire();
+        byte[] elpFileContent = new byte[cipher.getOutputSize(elpJson.length) + HMAC_LENGTH];
+        int encryptedLength = cipher.doFinal(elpJson, 0, elpJson.length, elpFileContent, 0);
+        encryptCiphers.release(cipher);
+        System.out.println("Encrypted ELP data: " + encryptedLength + " bytes");
 
         // Generate HMAC for integrity
-        byte[] hmac = generateHmac(elpJson);
-        System.out.println("Generated HMAC: " + hmac.length + " bytes");
-
-        // Combine encrypted data and HMAC
-        byte[] elpFileContent = new byte[encryptedData.length + hmac.length];
-        System.arraycopy(encryptedData, 0, elpFileContent, 0, encryptedData.length);
-        System.arraycopy(hmac, 0, elpFileContent, encryptedData.length, hmac.length);
+        Mac mac = macs.acquire();
+        mac.update(elpJson);
+        mac.doFinal(elpFileContent, encryptedLength);
+        macs.release(mac);
         System.out.println("Combined ELP file content: " + elpFileContent.length + " bytes");
 
-        // Store metadata in MongoDB instead of the local map
-        ElpMetadata metadata = new ElpMetadata(elpId, userId, username, email);
-        elpMetadataRepository.save(metadata);
-        System.out.println("Stored metadata for ELP ID: " + elpId + " in MongoDB");
-
         // Create filename - just userId.elp as requested
         String filename = userId + ".elp";
         System.out.println("Created filename: " + filename);
 
-        return new ELPResult(elpFileContent, filename);
+        return new ELPResult(elpFileContent, filename, new ElpMetadata(elpId, userId, username, email));
     }
 
     /**
@@ -96,10 +142,16 @@ public class ElpService {
     public static class ELPResult {
         private final byte[] fileContent;
         private final String filename;
+        private final ElpMetadata metadata;
         
         public ELPResult(byte[] fileContent, String filename) {
+            this(fileContent, filename, null);
+        }
+
+        public ELPResult(byte[] fileContent, String filename, ElpMetadata metadata) {
             this.fileContent = fileContent;
             this.filename = filename;
+            this.metadata = metadata;
         }
         
         public byte[] getFileContent() {
@@ -109,39 +161,54 @@ public class ElpService {
         public String getFilename() {
             return filename;
         }
+
+        /** Metadata record the file is validated against */
+        public ElpMetadata getMetadata() {
+            return metadata;
+        }
     }
 
     public boolean validateElpFile(MultipartFile file, String userId) throws GeneralSecurityException, IOException {
         System.out.println("Validating ELP file for user ID: " + userId);
         
-        byte[] fileContent = file.getBytes();
-        if (fileContent.length < 32) { // Minimum HMAC size
+        long size = file.getSize();
+        if (size <= HMAC_LENGTH) { // Minimum HMAC size
             System.out.println("Invalid file: too small");
             return false;
         }
+        if (size > maxFileBytes) {
+            System.out.println("Invalid file: larger than " + maxFileBytes + " bytes");
+            return false;
+        }
 
-        // Split encrypted data and HMAC
-        byte[] encryptedData = new byte[fileContent.length - 32];
-        byte[] receivedHmac = new byte[32];
-        System.arraycopy(fileContent, 0, encryptedData, 0, encryptedData.length);
-        System.arraycopy(fileContent, encryptedData.length, receivedHmac, 0, 32);
-        System.out.println("Split file into encrypted data and HMAC");
+        // Read the upload once into an exactly sized array; encrypted data and
+        // HMAC are then used in place instead of being copied apart
+        byte[] fileContent = new byte[(int) size];
+        try (InputStream in = file.getInputStream()) {
+            if (in.readNBytes(fileContent, 0, fileContent.length) != fileContent.length || in.read() != -1) {
+                System.out.println("Invalid file: size does not match upload");
+                return false;
+            }
+        }
+        int encryptedLength = fileContent.length - HMAC_LENGTH;
 
         // Decrypt the data
         byte[] decryptedData;
         try {
-            decryptedData = decrypt(encryptedData);
+            Cipher cipher = decryptCiphers.acquire();
+            decryptedData = cipher.doFinal(fileContent, 0, encryptedLength);
+            decryptCiphers.release(cipher);
             System.out.println("Successfully decrypted data");
         } catch (Exception e) {
             System.out.println("Failed to decrypt data: " + e.getMessage());
             return false;
         }
-        
-        String elpJson = new String(decryptedData, StandardCharsets.UTF_8);
 
         // Verify HMAC
-        byte[] calculatedHmac = generateHmac(elpJson);
-        if (!MessageDigest.isEqual(receivedHmac, calculatedHmac)) {
+        Mac mac = macs.acquire();
+        byte[] calculatedHmac = mac.doFinal(decryptedData);
+        macs.release(mac);
+        if (!constantTimeEquals(calculatedHmac, fileContent, encryptedLength)) {
             System.out.println("HMAC verification failed");
             return false;
         }
@@ -150,15 +217,15 @@ public class ElpService {
         // Parse ELP data
         ElpData elpData;
         try {
-            elpData = new ObjectMapper().readValue(elpJson, ElpData.class);
+            elpData = ELP_READER.readValue(decryptedData);
             System.out.println("Parsed ELP data for ELP ID: " + elpData.getElpId());
         } catch (Exception e) {
             System.out.println("Failed to parse ELP data: " + e.getMessage());
             return false;
         }
 
-        // Validate metadata - now using MongoDB repository
-        ElpMetadata storedMetadata = elpMetadataRepository.findByElpId(elpData.getElpId());
+        // Validate metadata; unknown IDs are rejected by the filter without a MongoDB query
+        ElpMetadata storedMetadata = elpMetadataLookup.findByElpId(elpData.getElpId());
         if (storedMetadata == null) {
             System.out.println("No stored metadata found for ELP ID: " + elpData.getElpId());
             return false;
@@ -175,37 +242,28 @@ public class ElpService {
         return true;
     }
 
-    private byte[] encrypt(byte[] data) throws GeneralSecurityException {
-        // Use derived key instead of trying to decode as Base64
-        byte[] keyBytes = deriveKey(encryptionKey);
-        System.out.println("Using " + keyBytes.length + "-byte key for encryption");
-        
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, AES_ALGORITHM);
+    private Cipher newCipher(int mode) throws GeneralSecurityException {
         Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec);
-        return cipher.doFinal(data);
+        cipher.init(mode, aesKey);
+        return cipher;
     }
 
-    private byte[] decrypt(byte[] data) throws GeneralSecurityException {
-        // Use derived key instead of trying to decode as Base64
-        byte[] keyBytes = deriveKey(encryptionKey);
-        System.out.println("Using " + keyBytes.length + "-byte key for decryption");
-        
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, AES_ALGORITHM);
-        Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, keySpec);
-        return cipher.doFinal(data);
+    private Mac newMac() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(macKey);
+        return mac;
     }
 
-    private byte[] generateHmac(String data) throws GeneralSecurityException {
-        // Use derived key instead of trying to decode as Base64
-        byte[] keyBytes = deriveKey(hmacKey);
-        System.out.println("Using " + keyBytes.length + "-byte key for HMAC");
-        
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
-        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-        mac.init(keySpec);
-        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    // Same result as MessageDigest.isEqual against data[offset..], without copying the region out
+    private static boolean constantTimeEquals(byte[] expected, byte[] data, int offset) {
+        if (data.length - offset != expected.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            diff |= expected[i] ^ data[offset + i];
+        }
+        return diff == 0;
     }
 
     /**
@@ -235,7 +293,7 @@ public class ElpService {
             System.out.println("Error deriving key: " + e.getMessage());
             // Fallback to a secure random key if all else fails
             byte[] key = new byte[32]; // 256 bits
-            new SecureRandom().nextBytes(key);
+            RANDOM.nextBytes(key);
             System.out.println("Using fallback random key");
             return key;
         }
@@ -243,7 +301,7 @@ public class ElpService {
 
     private String generateUniqueId() {
         byte[] randomBytes = new byte[16];
-        new SecureRandom().nextBytes(randomBytes);
+        RANDOM.nextBytes(randomBytes);
         return Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
     }
 
@@ -0,0 +1,11 @@
+package com.twofactorauth.service;
+
+/**
+ * Encryption or decryption failed: bad key setup, corrupt ciphertext or an output buffer that is too small.
+ */
+public class EncryptionException extends RuntimeException {
+
+    public EncryptionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,25 +1,43 @@
 package com.twofactorauth.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Base64;
 
+/**
+ * AES encryption of stored TOTP secrets and PINs.
+ *
+ * Initialized Cipher instances are pooled and reused, since Cipher.getInstance
+ * and init dominate the cost of encrypting a few bytes.
+ * The byte[] / ByteBuffer methods throw {@link EncryptionException}; the
+ * String methods keep their original contract of returning null on failure.
+ */
 @Service
 public class EncryptionService {
 
     @Value("${encryption.secret}")
     private String secretKey;
 
-    private SecretKeySpec secretKeySpec;
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    private volatile SecretKeySpec secretKeySpec;
+    // Stored data was written with the provider default for "AES" (ECB, PKCS5 padding); keep it readable
     private static final String ALGORITHM = "AES";
 
+    private final CryptoPool<Cipher> encryptCiphers = new CryptoPool<>(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final CryptoPool<Cipher> decryptCiphers = new CryptoPool<>(() -> newCipher(Cipher.DECRYPT_MODE));
+
     public void init() throws NoSuchAlgorithmException {
         MessageDigest sha = MessageDigest.getInstance("SHA-256");
         byte[] key = sha.digest(secretKey.getBytes(StandardCharsets.UTF_8));
@@ -29,33 +47,95 @@ public class EncryptionService {
 
     public String encrypt(String strToEncrypt) {
         try {
-            if (secretKeySpec == null) {
-                init();
-            }
-            
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
             return Base64.getEncoder()
-                    .encodeToString(cipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
-        } catch (Exception e) {
-            System.out.println("Error while encrypting: " + e.toString());
+                    .encodeToString(encrypt(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
+        } catch (RuntimeException e) {
+            System.out.println("Error while encrypting: " + describe(e));
         }
         return null;
     }
 
     public String decrypt(String strToDecrypt) {
         try {
-            if (secretKeySpec == null) {
-                init();
-            }
-            
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
-            return new String(cipher.doFinal(Base64.getDecoder()
-                    .decode(strToDecrypt)), StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            System.out.println("Error while decrypting: " + e.toString());
+            return new String(decrypt(Base64.getDecoder().decode(strToDecrypt)), StandardCharsets.UTF_8);
+        } catch (RuntimeException e) {
+            System.out.println("Error while decrypting: " + describe(e));
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Encrypt raw bytes
+     * @throws EncryptionException if encryption fails
+     */
+    public byte[] encrypt(byte[] plaintext) {
+        try {
+            Cipher cipher = encryptCiphers.acquire();
+            byte[] result = cipher.doFinal(plaintext);
+            encryptCiphers.release(cipher);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Decrypt raw ciphertext bytes
+     * @throws EncryptionException if the ciphertext is corrupt or was encrypted with another key
+     */
+    public byte[] decrypt(byte[] ciphertext) {
+        long start = System.nanoTime();
+        try {
+            Cipher cipher = decryptCiphers.acquire();
+            byte[] result = cipher.doFinal(ciphertext);
+            decryptCiphers.release(cipher);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException("Decryption failed", e);
+        } finally {
+            serviceMetrics.decrypted(start);
+        }
+    }
+
+    /**
+     * Decrypt the remaining bytes of input into output, without intermediate arrays.
+     * Output needs room for input.remaining() bytes; callers can reuse it and
+     * should clear it once the plaintext is no longer needed.
+     * @return number of plaintext bytes written
+     * @throws EncryptionException if decryption fails or output is too small
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        long start = System.nanoTime();
+        try {
+            Cipher cipher = decryptCiphers.acquire();
+            int written = cipher.doFinal(input, output);
+            decryptCiphers.release(cipher);
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException("Decryption failed", e);
+        } finally {
+            serviceMetrics.decrypted(start);
+        }
+    }
+
+    private Cipher newCipher(int mode) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(mode, key());
+        return cipher;
+    }
+
+    private SecretKeySpec key() throws NoSuchAlgorithmException {
+        if (secretKeySpec == null) {
+            synchronized (this) {
+                if (secretKeySpec == null) {
+                    init();
+                }
+            }
+        }
+        return secretKeySpec;
+    }
+
+    private static String describe(RuntimeException e) {
+        return e instanceof EncryptionException && e.getCause() != null ? e.getCause().toString() : e.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.twofactorauth.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -7,8 +8,11 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class JwtService {
     
@@ -20,36 +24,96 @@ public class JwtService {
     
     @Value("${api.admin.generateJwtToken}")
     private String generateJwtTokenUrl;
+
+    @Autowired
+    private TokenValidationCache tokenValidationCache;
+
+    @Autowired
+    private RestTemplate authRestTemplate;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Autowired
+    private LocalJwtVerifier localJwtVerifier;
+
+    @Autowired
+    private AuthServerGuard authServerGuard;
+
+    // Concurrent requests with the same token share one validateToken call
+    private final SingleFlight<String, String> tokenLookups = new SingleFlight<>();
     
     /**
-     * Extract username from JWT token
+     * Extract username from JWT token.
+     * Results are served from the token validation cache when possible; with
+     * jwt.local.enabled the token is then verified in-process, and only tokens
+     * that cannot be decided locally go to the auth server.
      * @param token JWT token string
      * @return username extracted from token
+     * @throws AuthServerUnavailableException if the auth server is not being called right now
      */
     public String extractUsername(String token) {
-        RestTemplate restTemplate = new RestTemplate();
+        TokenValidationCache.Lookup cached = tokenValidationCache.get(token);
+        if (cached != null) {
+            return cached.username();
+        }
+        LocalJwtVerifier.Result local = localJwtVerifier.verify(token);
+        switch (local.status()) {
+            case VALID:
+                tokenValidationCache.putValid(token, local.username());
+                return local.username();
+            case REJECTED:
+                tokenValidationCache.putRejected(token);
+                return null;
+            default:
+                return tokenLookups.execute(token, () -> validateRemotely(token));
+        }
+    }
 
+    public SingleFlight<String, String> getTokenLookups() {
+        return tokenLookups;
+    }
+
+    private String validateRemotely(String token) {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Authorization", "Bearer " + token);
         HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
 
+        Timer.Sample sample = serviceMetrics.start();
         try {
-            ResponseEntity<TokenResponse> response = restTemplate.exchange(
+            ResponseEntity<TokenResponse> response = authServerGuard.call(() -> authRestTemplate.exchange(
                 validateTokenUrl,
                 HttpMethod.POST,
                 requestEntity,
                 TokenResponse.class
-            );
+            ));
 
-            if (response.getStatusCode() == HttpStatus.OK) {
-                System.out.println("Token valid for user: " + response.getBody().getEmail());
-                return response.getBody().getEmail();
+            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null
+                    && response.getBody().getEmail() != null) {
+                String email = response.getBody().getEmail();
+                System.out.println("Token valid for user: " + email);
+                tokenValidationCache.putValid(token, email);
+                serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.SUCCESS);
+                return email;
             } else {
                 System.out.println("Invalid token");
+                tokenValidationCache.putRejected(token);
+                serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.REJECTED);
                 return null;
             }
+        } catch (AuthServerUnavailableException e) {
+            serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.UNAVAILABLE);
+            throw e;
+        } catch (HttpClientErrorException e) {
+            // The auth server rejected the token; remember that briefly
+            System.out.println("Token rejected: " + e.getStatusCode());
+            tokenValidationCache.putRejected(token);
+            serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.REJECTED);
+            return null;
         } catch (Exception e) {
+            // Network or server errors are not cached so the next call retries
             System.out.println("Token validation failed: " + e.getMessage());
+            serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.ERROR);
             return null;
         }
     }
@@ -58,10 +122,12 @@ public class JwtService {
      * Generate a JWT token for a user using admin privileges
      * @param emailOrUsername The email or username of the user
      * @return Generated JWT token string or null if generation fails
+     * @throws AuthServerUnavailableException if the auth server is not being called right now
      */
     public String generateJwtToken(String emailOrUsername) {
         System.out.println("Generating JWT token for user: " + emailOrUsername);
         
+        Timer.Sample sample = serviceMetrics.start();
         try {
             // Construct the URL with path variable
             String url = generateJwtTokenUrl + "/" + emailOrUsername;
@@ -74,23 +140,28 @@ public class JwtService {
             HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
             
             // Make the request expecting a string response
-            RestTemplate restTemplate = new RestTemplate();
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = authServerGuard.call(() -> authRestTemplate.exchange(
                 url,
                 HttpMethod.POST,
                 requestEntity,
                 String.class
-            );
+            ));
             
             if (response.getStatusCode() == HttpStatus.OK) {
                 String token = response.getBody();
                 System.out.println("JWT token generated successfully");
+                serviceMetrics.authCall(sample, "generate-token", ServiceMetrics.SUCCESS);
                 return token;
             } else {
                 System.out.println("Failed to generate token. Status: " + response.getStatusCode());
+                serviceMetrics.authCall(sample, "generate-token", ServiceMetrics.REJECTED);
                 return null;
             }
+        } catch (AuthServerUnavailableException e) {
+            serviceMetrics.authCall(sample, "generate-token", ServiceMetrics.UNAVAILABLE);
+            throw e;
         } catch (Exception e) {
+            serviceMetrics.authCall(sample, "generate-token", ServiceMetrics.ERROR);
             System.out.println("Error generating JWT token: " + e.getMessage());
             e.printStackTrace();
             return null;
@@ -0,0 +1,221 @@
+package com.twofactorauth.service;
+
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.ParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Optional in-process JWT verification: signature, expiry, audience and
+ * (if configured) issuer are checked against a configured public key or the
+ * auth server's JWKS, so a token is validated without a round trip.
+ *
+ * The JWKS is cached and refreshed in the background before it expires. A
+ * token whose key id is not in the key set (for example right after a key
+ * rotation, before the next refresh) or that lacks the username claim is not
+ * decided here; callers fall back to the remote validateToken call.
+ */
+@Component
+public class LocalJwtVerifier {
+
+    private static final Set<JWSAlgorithm> ALGORITHMS = Set.of(
+            JWSAlgorithm.RS256, JWSAlgorithm.RS384, JWSAlgorithm.RS512,
+            JWSAlgorithm.PS256, JWSAlgorithm.PS384, JWSAlgorithm.PS512,
+            JWSAlgorithm.ES256, JWSAlgorithm.ES384, JWSAlgorithm.ES512);
+
+    @Value("${jwt.local.enabled:false}")
+    private boolean enabled;
+
+    /** PEM public key; takes precedence over jwks-uri */
+    @Value("${jwt.local.public-key:}")
+    private String publicKeyPem;
+
+    @Value("${jwt.local.jwks-uri:}")
+    private String jwksUri;
+
+    @Value("${jwt.local.jwks-ttl-minutes:60}")
+    private long jwksTtlMinutes;
+
+    @Value("${jwt.local.jwks-refresh-ahead-seconds:300}")
+    private long jwksRefreshAheadSeconds;
+
+    /** Required "aud" value; empty skips the audience check */
+    @Value("${jwt.local.audience:}")
+    private String audience;
+
+    /** Required "iss" value; empty skips the issuer check */
+    @Value("${jwt.local.issuer:}")
+    private String issuer;
+
+    /** Claim holding the username, as returned by the remote validateToken call */
+    @Value("${jwt.local.username-claim:email}")
+    private String usernameClaim;
+
+    @Value("${jwt.local.clock-skew-seconds:30}")
+    private int clockSkewSeconds;
+
+    @Value("${auth.http.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${auth.http.read-timeout-ms:5000}")
+    private int readTimeoutMs;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    private JWSVerificationKeySelector<SecurityContext> keySelector;
+    private DefaultJWTProcessor<SecurityContext> processor;
+
+    public enum Status {
+        /** Signature and claims verified; username is set */
+        VALID,
+        /** Definitely not acceptable: bad signature, expired, wrong audience or issuer, malformed */
+        REJECTED,
+        /** Not decided locally (disabled, unknown key id, key set unavailable); ask the auth server */
+        UNDECIDED
+    }
+
+    public record Result(Status status, String username) {
+        static final Result REJECTED = new Result(Status.REJECTED, null);
+        static final Result UNDECIDED = new Result(Status.UNDECIDED, null);
+    }
+
+    @PostConstruct
+    public void init() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        JWKSource<SecurityContext> keySource;
+        if (!publicKeyPem.isBlank()) {
+            // The configured key verifies every token, whatever key id it names
+            List<JWK> key = List.of(parsePublicKey(publicKeyPem));
+            keySource = (selector, context) -> key;
+        } else if (!jwksUri.isBlank()) {
+            keySource = JWKSourceBuilder.create(URI.create(jwksUri).toURL(),
+                            new DefaultResourceRetriever(connectTimeoutMs, readTimeoutMs, 512 * 1024))
+                    .cache(TimeUnit.MINUTES.toMillis(jwksTtlMinutes), readTimeoutMs)
+                    .refreshAheadCache(TimeUnit.SECONDS.toMillis(jwksRefreshAheadSeconds), true)
+                    .build();
+        } else {
+            throw new IllegalStateException("jwt.local.enabled needs jwt.local.public-key or jwt.local.jwks-uri");
+        }
+
+        keySelector = new JWSVerificationKeySelector<>(ALGORITHMS, keySource);
+        processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(keySelector);
+
+        // The username claim is not required here: a token without it is left UNDECIDED in verify()
+        Set<String> requiredClaims = Set.of("exp");
+        JWTClaimsSet.Builder exactMatch = new JWTClaimsSet.Builder();
+        if (!issuer.isBlank()) {
+            exactMatch.issuer(issuer);
+        }
+        DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier = new DefaultJWTClaimsVerifier<>(
+                audience.isBlank() ? null : Set.of(audience), exactMatch.build(), requiredClaims, null);
+        claimsVerifier.setMaxClockSkew(clockSkewSeconds);
+        processor.setJWTClaimsSetVerifier(claimsVerifier);
+        System.out.println("Local JWT verification enabled using "
+                + (publicKeyPem.isBlank() ? "JWKS " + jwksUri : "the configured public key"));
+    }
+
+    /**
+     * X.509 SubjectPublicKeyInfo PEM ("BEGIN PUBLIC KEY"), RSA or EC.
+     * Literal \n sequences are accepted so the key fits in one environment variable.
+     */
+    static JWK parsePublicKey(String pem) throws GeneralSecurityException {
+        String base64 = pem.replace("\\n", "\n")
+                .replace("-----BEGIN PUBLIC KEY-----", "")
+                .replace("-----END PUBLIC KEY-----", "")
+                .replaceAll("\\s", "");
+        X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(base64));
+        try {
+            return new RSAKey.Builder((RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(spec)).build();
+        } catch (InvalidKeySpecException e) {
+            ECPublicKey key = (ECPublicKey) KeyFactory.getInstance("EC").generatePublic(spec);
+            return new ECKey.Builder(Curve.forECParameterSpec(key.getParams()), key).build();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Verify a token locally
+     * @param token raw JWT
+     */
+    public Result verify(String token) {
+        if (!enabled) {
+            return Result.UNDECIDED;
+        }
+        SignedJWT jwt;
+        try {
+            jwt = SignedJWT.parse(token);
+        } catch (ParseException e) {
+            serviceMetrics.localJwtVerification(Status.REJECTED);
+            return Result.REJECTED;
+        }
+
+        try {
+            // An empty selection means an unknown key id or an algorithm we do not verify locally
+            List<?> keys = keySelector.selectJWSKeys(jwt.getHeader(), null);
+            if (keys.isEmpty()) {
+                serviceMetrics.localJwtVerification(Status.UNDECIDED);
+                return Result.UNDECIDED;
+            }
+        } catch (KeySourceException e) {
+            System.out.println("JWKS unavailable, validating remotely: " + e.getMessage());
+            serviceMetrics.localJwtVerification(Status.UNDECIDED);
+            return Result.UNDECIDED;
+        }
+
+        try {
+            Object username = processor.process(jwt, null).getClaim(usernameClaim);
+            if (!(username instanceof String name) || name.isBlank()) {
+                serviceMetrics.localJwtVerification(Status.UNDECIDED);
+                return Result.UNDECIDED;
+            }
+            serviceMetrics.localJwtVerification(Status.VALID);
+            return new Result(Status.VALID, name);
+        } catch (BadJOSEException e) {
+            serviceMetrics.localJwtVerification(Status.REJECTED);
+            return Result.REJECTED;
+        } catch (JOSEException e) {
+            System.out.println("Local JWT verification failed, validating remotely: " + e.getMessage());
+            serviceMetrics.localJwtVerification(Status.UNDECIDED);
+            return Result.UNDECIDED;
+        }
+    }
+}
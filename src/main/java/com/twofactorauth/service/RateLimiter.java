@@ -0,0 +1,199 @@
+package com.twofactorauth.service;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-process token buckets per client IP, username and ELP user id.
+ *
+ * Each bucket is a single AtomicLong holding the GCRA "theoretical arrival
+ * time": a request is admitted if that time is no more than one burst ahead
+ * of now, and admitting it pushes the time forward by one emission interval.
+ * Updates are a CAS loop, so there are no locks on the request path.
+ *
+ * A bucket whose arrival time has passed is full again and carries no state,
+ * so the sweeper simply drops it. When the key limit is reached new keys share
+ * one overflow bucket per kind, which keeps memory bounded under a flood of
+ * distinct IPs while still limiting that flood.
+ */
+@Component
+public class RateLimiter {
+
+    public enum Kind {
+        /** Every request to the PIN, ELP and account endpoints, per client address */
+        IP,
+        /** PIN verification and change attempts, per username */
+        PIN,
+        /** ELP file logins, per user id taken from the file name */
+        ELP,
+        /** Code verification attempts, per username */
+        VERIFY_CODE,
+        /** Account export and restore, per username; each derives a key from a passphrase */
+        BACKUP
+    }
+
+    private static final String OVERFLOW_KEY = "\u0000overflow";
+
+    @Value("${ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ratelimit.max-keys:100000}")
+    private int maxKeys;
+
+    @Value("${ratelimit.ip.per-minute:300}")
+    private int ipPerMinute;
+
+    @Value("${ratelimit.ip.burst:60}")
+    private int ipBurst;
+
+    @Value("${ratelimit.pin.per-minute:10}")
+    private int pinPerMinute;
+
+    @Value("${ratelimit.pin.burst:5}")
+    private int pinBurst;
+
+    @Value("${ratelimit.elp.per-minute:10}")
+    private int elpPerMinute;
+
+    @Value("${ratelimit.elp.burst:5}")
+    private int elpBurst;
+
+    @Value("${ratelimit.verify-code.per-minute:30}")
+    private int verifyCodePerMinute;
+
+    @Value("${ratelimit.verify-code.burst:10}")
+    private int verifyCodeBurst;
+
+    @Value("${ratelimit.backup.per-minute:5}")
+    private int backupPerMinute;
+
+    @Value("${ratelimit.backup.burst:3}")
+    private int backupBurst;
+
+    private final Map<Kind, Limit> limits = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> rejections = new EnumMap<>(Kind.class);
+    private final Map<Kind, ConcurrentHashMap<String, AtomicLong>> buckets = new EnumMap<>(Kind.class);
+
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void start() {
+        limits.put(Kind.IP, new Limit(ipPerMinute, ipBurst));
+        limits.put(Kind.PIN, new Limit(pinPerMinute, pinBurst));
+        limits.put(Kind.ELP, new Limit(elpPerMinute, elpBurst));
+        limits.put(Kind.VERIFY_CODE, new Limit(verifyCodePerMinute, verifyCodeBurst));
+        limits.put(Kind.BACKUP, new Limit(backupPerMinute, backupBurst));
+        for (Kind kind : Kind.values()) {
+            rejections.put(kind, new LongAdder());
+            buckets.put(kind, new ConcurrentHashMap<>());
+        }
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Take one token from the bucket of the given identity.
+     * @param key client address, username or user id; null is treated as one shared identity
+     * @return 0 if admitted, otherwise the seconds to wait before retrying
+     */
+    public long acquire(Kind kind, String key) {
+        if (!enabled) {
+            return 0;
+        }
+        Limit limit = limits.get(kind);
+        long now = System.nanoTime();
+        AtomicLong arrival = bucket(kind, key == null ? "" : key, now);
+
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + limit.intervalNanos();
+            long ahead = next - now;
+            if (ahead > limit.burstNanos()) {
+                rejections.get(kind).increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(ahead - limit.burstNanos() + 999_999_999));
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public long getRejections(Kind kind) {
+        return rejections.get(kind).sum();
+    }
+
+    /**
+     * Snapshot of per-kind rejections and tracked keys
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (Kind kind : Kind.values()) {
+            String name = kind.name().toLowerCase();
+            stats.put(name + ".rejections", getRejections(kind));
+            stats.put(name + ".keys", buckets.get(kind).size());
+        }
+        return stats;
+    }
+
+    /**
+     * 429 response with Retry-After, in the JSON error shape the controllers use
+     */
+    public static ResponseEntity<Object> tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .body(Map.of("error", "Too many requests. Please try again later."));
+    }
+
+    private AtomicLong bucket(Kind kind, String key, long now) {
+        ConcurrentHashMap<String, AtomicLong> map = buckets.get(kind);
+        AtomicLong arrival = map.get(key);
+        if (arrival != null) {
+            return arrival;
+        }
+        if (map.size() >= maxKeys) {
+            return map.computeIfAbsent(OVERFLOW_KEY, k -> new AtomicLong(now));
+        }
+        return map.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (ConcurrentHashMap<String, AtomicLong> map : buckets.values()) {
+            // Arrival time in the past means the bucket is full again: equivalent to no entry
+            map.values().removeIf(arrival -> arrival.get() - now <= 0);
+        }
+    }
+
+    private record Limit(long intervalNanos, long burstNanos) {
+        Limit(int perMinute, int burst) {
+            this(TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute),
+                 TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute) * Math.max(1, burst));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.twofactorauth.service;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+
+import com.twofactorauth.model.Account;
+import com.twofactorauth.repo.ReactiveUserTotpRepository;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive front of {@link AccountCodeService}: loads accounts through the
+ * reactive repository and shares the same per-step code cache.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAccountCodeService {
+
+    @Autowired
+    private ReactiveUserTotpRepository reactiveUserTotpRepository;
+
+    @Autowired
+    private AccountCodeService accountCodeService;
+
+    /**
+     * Codes for the user's accounts at the current time step
+     */
+    public Mono<AccountCodeService.CodeSet> getCurrentCodes(String username) {
+        return Mono.defer(() -> {
+            long now = System.currentTimeMillis();
+            AccountCodeService.CodeSet cached = accountCodeService.getCachedCodes(username, now);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+
+            long version = accountCodeService.currentVersion(username);
+            return reactiveUserTotpRepository.findByUsername(username)
+                    .map(user -> user.getAccounts() == null ? List.<Account>of() : user.getAccounts())
+                    .defaultIfEmpty(List.of())
+                    .map(accounts -> accountCodeService.cacheCodes(username, now, version, accounts));
+        });
+    }
+
+    public void invalidate(String username) {
+        accountCodeService.invalidate(username);
+    }
+}
@@ -0,0 +1,136 @@
+package com.twofactorauth.service;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of {@link CodeStreamService}.
+ *
+ * All streams share one step-boundary ticker and one heartbeat ticker. Each
+ * stream buffers at most codes.stream.queue-capacity events; a client that
+ * falls further behind is disconnected.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCodeStreamService {
+
+    @Value("${codes.stream.max-per-user:5}")
+    private int maxStreamsPerUser;
+
+    @Value("${codes.stream.max-streams:10000}")
+    private int maxStreams;
+
+    @Value("${codes.stream.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${codes.stream.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${codes.stream.queue-capacity:4}")
+    private int queueCapacity;
+
+    @Autowired
+    private ReactiveAccountCodeService reactiveAccountCodeService;
+
+    @Autowired
+    private ReactiveJwtService reactiveJwtService;
+
+    private final ConcurrentHashMap<String, Integer> streamsPerUser = new ConcurrentHashMap<>();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final LongAdder slowConsumerEvictions = new LongAdder();
+    private final LongAdder rejectedStreams = new LongAdder();
+
+    // Deferred so the first tick is re-aligned to a step boundary whenever the
+    // shared ticker restarts after all streams have closed
+    private final Flux<Long> stepTicks = Flux.defer(() -> Flux.interval(
+                    Duration.ofMillis(TotpEngine.millisRemainingInStep(System.currentTimeMillis()) + 50),
+                    Duration.ofSeconds(TotpEngine.TIME_STEP_SECONDS)))
+            .share();
+
+    private Flux<Long> heartbeatTicks;
+
+    @PostConstruct
+    public void init() {
+        heartbeatTicks = Flux.interval(Duration.ofSeconds(heartbeatSeconds)).share();
+    }
+
+    /**
+     * Stream of code events for the user, or null if the user or the service is at its stream limit
+     * @param token bearer token, re-checked at every step boundary
+     */
+    public Flux<ServerSentEvent<Object>> subscribe(String username, String token) {
+        if (activeStreams.incrementAndGet() > maxStreams) {
+            activeStreams.decrementAndGet();
+            rejectedStreams.increment();
+            return null;
+        }
+
+        AtomicBoolean admitted = new AtomicBoolean();
+        streamsPerUser.compute(username, (key, count) -> {
+            int open = count == null ? 0 : count;
+            if (open >= maxStreamsPerUser) {
+                return count;
+            }
+            admitted.set(true);
+            return open + 1;
+        });
+        if (!admitted.get()) {
+            activeStreams.decrementAndGet();
+            rejectedStreams.increment();
+            return null;
+        }
+
+        Flux<ServerSentEvent<Object>> codes = stepTicks
+                .startWith(0L)
+                .concatMap(tick -> reactiveJwtService.extractUsername(token)
+                        .filter(username::equals)
+                        .flatMap(valid -> reactiveAccountCodeService.getCurrentCodes(username))
+                        // An empty result means the token no longer validates
+                        .switchIfEmpty(Mono.error(new IllegalStateException("Token no longer valid")))
+                        // Auth server unavailable: skip this step rather than end the stream
+                        .onErrorResume(AuthServerUnavailableException.class, e -> Mono.empty()))
+                .map(codeSet -> ServerSentEvent.builder((Object) AccountCodeService.toCurrentCodesBody(codeSet.codes()))
+                        .event("codes")
+                        .id(Long.toString(codeSet.step()))
+                        .build());
+
+        Flux<ServerSentEvent<Object>> heartbeats = heartbeatTicks
+                .map(tick -> ServerSentEvent.builder().comment("heartbeat").build());
+
+        return Flux.merge(codes, heartbeats)
+                .onBackpressureBuffer(queueCapacity, dropped -> slowConsumerEvictions.increment())
+                .take(Duration.ofMinutes(timeoutMinutes))
+                .onErrorResume(e -> Flux.empty())
+                .doFinally(signal -> release(username));
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    public long getSlowConsumerEvictions() {
+        return slowConsumerEvictions.sum();
+    }
+
+    public long getRejectedStreams() {
+        return rejectedStreams.sum();
+    }
+
+    private void release(String username) {
+        streamsPerUser.computeIfPresent(username, (key, count) -> count <= 1 ? null : count - 1);
+        activeStreams.decrementAndGet();
+    }
+}
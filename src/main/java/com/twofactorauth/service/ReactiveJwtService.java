@@ -0,0 +1,155 @@
+package com.twofactorauth.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Non-blocking counterpart of {@link JwtService#extractUsername} for the reactive stack.
+ * Shares the token validation cache and the auth.http.* client settings.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveJwtService {
+
+    @Value("${api.auth.validateToken}")
+    private String validateTokenUrl;
+
+    @Value("${auth.http.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${auth.http.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${auth.http.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${auth.http.pool-acquire-timeout-ms:1000}")
+    private long poolAcquireTimeoutMs;
+
+    @Value("${auth.http.idle-eviction-seconds:30}")
+    private long idleEvictionSeconds;
+
+    @Autowired
+    private TokenValidationCache tokenValidationCache;
+
+    @Autowired
+    private WebClient.Builder webClientBuilder;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Autowired
+    private LocalJwtVerifier localJwtVerifier;
+
+    @Autowired
+    private AuthServerGuard authServerGuard;
+
+    // Concurrent requests with the same token share one validateToken call
+    private final SingleFlight<String, String> tokenLookups = new SingleFlight<>();
+
+    private WebClient webClient;
+
+    @PostConstruct
+    public void init() {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("auth-server")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(poolAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofSeconds(idleEvictionSeconds))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs))
+                .keepAlive(true);
+        webClient = webClientBuilder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * Extract username from JWT token
+     * @param token JWT token string
+     * @return the username, or empty if the token is invalid; fails with
+     *         AuthServerUnavailableException if the auth server is not being called right now
+     */
+    public Mono<String> extractUsername(String token) {
+        TokenValidationCache.Lookup cached = tokenValidationCache.get(token);
+        if (cached != null) {
+            return Mono.justOrEmpty(cached.username());
+        }
+        LocalJwtVerifier.Result local = localJwtVerifier.verify(token);
+        if (local.status() == LocalJwtVerifier.Status.VALID) {
+            tokenValidationCache.putValid(token, local.username());
+            return Mono.just(local.username());
+        }
+        if (local.status() == LocalJwtVerifier.Status.REJECTED) {
+            tokenValidationCache.putRejected(token);
+            return Mono.empty();
+        }
+
+        return tokenLookups.executeAsync(token, () -> {
+            Timer.Sample sample = serviceMetrics.start();
+            return authServerGuard.guard(webClient.post()
+                            .uri(validateTokenUrl)
+                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                            .retrieve()
+                            .bodyToMono(TokenResponse.class))
+                    .flatMap(response -> Mono.justOrEmpty(response.getEmail()))
+                    .doOnNext(email -> {
+                        tokenValidationCache.putValid(token, email);
+                        serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.SUCCESS);
+                    })
+                    .switchIfEmpty(Mono.fromRunnable(() -> {
+                        tokenValidationCache.putRejected(token);
+                        serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.REJECTED);
+                    }))
+                    .onErrorResume(WebClientResponseException.class, e -> {
+                        if (e.getStatusCode().is4xxClientError()) {
+                            // The auth server rejected the token; remember that briefly
+                            tokenValidationCache.putRejected(token);
+                            serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.REJECTED);
+                        } else {
+                            System.out.println("Token validation failed: " + e.getMessage());
+                            serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.ERROR);
+                        }
+                        return Mono.empty();
+                    })
+                    .doOnError(AuthServerUnavailableException.class,
+                            e -> serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.UNAVAILABLE))
+                    .onErrorResume(e -> !(e instanceof AuthServerUnavailableException), e -> {
+                        // Network errors are not cached so the next call retries
+                        System.out.println("Token validation failed: " + e.getMessage());
+                        serviceMetrics.authCall(sample, "validate-token", ServiceMetrics.ERROR);
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    public SingleFlight<String, String> getTokenLookups() {
+        return tokenLookups;
+    }
+
+    /**
+     * Username from an "Authorization: Bearer ..." header, or empty
+     */
+    public Mono<String> extractUsernameFromHeader(String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return Mono.empty();
+        }
+        return extractUsername(authHeader.substring(7)); // Remove "Bearer "
+    }
+}
@@ -0,0 +1,125 @@
+package com.twofactorauth.service;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Timers for the auth server calls and the per-account crypto work, exported
+ * through /actuator/metrics and /actuator/prometheus.
+ *
+ * Mongo and HTTP are covered by Spring Boot's own meters:
+ * spring.data.repository.invocations times every repository method (tagged
+ * by repository and method), mongodb.driver.commands every command sent, and
+ * http.server.requests every request by uri, status and outcome. Together
+ * they show whether a slow /current-codes waits on the auth server, on Mongo
+ * or on decrypting and hashing secrets.
+ */
+@Component
+public class ServiceMetrics {
+
+    public static final String AUTH_CALLS = "securetotp.auth.calls";
+    public static final String DECRYPT = "securetotp.encryption.decrypt";
+    public static final String CODE_GENERATION = "securetotp.codes.generation";
+    public static final String ACCOUNTS_PER_RESPONSE = "securetotp.accounts.per.response";
+    public static final String LOCAL_JWT = "securetotp.jwt.local";
+    public static final String CIRCUIT_TRANSITIONS = "securetotp.circuit.transitions";
+
+    public static final String SUCCESS = "success";
+    public static final String REJECTED = "rejected";
+    public static final String ERROR = "error";
+    public static final String UNAVAILABLE = "unavailable";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private Timer decrypt;
+    private Timer codeGeneration;
+
+    @PostConstruct
+    public void init() {
+        decrypt = Timer.builder(DECRYPT)
+                .description("Decryption of one stored secret or PIN")
+                .register(registry);
+        codeGeneration = Timer.builder(CODE_GENERATION)
+                .description("Decrypting one account's secret and generating its code")
+                .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Record a call to the auth server
+     * @param operation validate-token, generate-token or fetch-user
+     * @param outcome SUCCESS, REJECTED (the server answered no), ERROR (no usable answer)
+     *                or UNAVAILABLE (not attempted: circuit open or bulkhead full)
+     */
+    public void authCall(Timer.Sample sample, String operation, String outcome) {
+        sample.stop(Timer.builder(AUTH_CALLS)
+                .description("Calls to the auth server")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+
+    /**
+     * @param startNanos System.nanoTime() before the decrypt
+     */
+    public void decrypted(long startNanos) {
+        decrypt.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param startNanos System.nanoTime() before the account's secret was decrypted
+     */
+    public void codeGenerated(long startNanos) {
+        codeGeneration.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record how many accounts a response carried
+     * @param endpoint request path, e.g. /current-codes
+     */
+    public void accountsReturned(String endpoint, int count) {
+        DistributionSummary.builder(ACCOUNTS_PER_RESPONSE)
+                .description("Accounts returned per response")
+                .tag("endpoint", endpoint)
+                .register(registry)
+                .record(count);
+    }
+
+    /**
+     * Record the outcome of a local JWT verification; undecided ones go on to the auth server
+     */
+    public void localJwtVerification(LocalJwtVerifier.Status status) {
+        Counter.builder(LOCAL_JWT)
+                .description("Tokens verified in-process")
+                .tag("result", status.name().toLowerCase(Locale.ROOT))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Record a circuit breaker state change
+     * @param from state name, e.g. CLOSED
+     */
+    public void circuitTransition(String name, String from, String to) {
+        Counter.builder(CIRCUIT_TRANSITIONS)
+                .description("Circuit breaker state transitions")
+                .tag("name", name)
+                .tag("from", from.toLowerCase(Locale.ROOT))
+                .tag("to", to.toLowerCase(Locale.ROOT))
+                .register(registry)
+                .increment();
+    }
+}
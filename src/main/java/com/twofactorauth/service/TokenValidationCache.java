@@ -0,0 +1,177 @@
+package com.twofactorauth.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded in-process cache of remote token validation results.
+ *
+ * Entries are keyed by the SHA-256 digest of the token so raw bearer tokens
+ * are never kept in memory. Valid tokens are cached until the token's own
+ * "exp" claim or the configured TTL, whichever comes first. Rejected tokens
+ * are cached for a short negative TTL. When the cache is full the least
+ * recently used entry is evicted.
+ */
+@Component
+public class TokenValidationCache {
+
+    private static final Pattern EXP_CLAIM = Pattern.compile("\"exp\"\\s*:\\s*(\\d+)");
+
+    @Value("${jwt.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${jwt.cache.negative-ttl-seconds:10}")
+    private long negativeTtlSeconds;
+
+    @Value("${jwt.cache.max-entries:10000}")
+    private int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Access-ordered map gives us LRU iteration order; guarded by "this".
+    // None of the critical sections below perform I/O.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Look up a cached validation result.
+     * @param token raw JWT
+     * @return the cached lookup, or null if nothing usable is cached
+     */
+    public Lookup get(String token) {
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.increment();
+                return new Lookup(entry.username);
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache a successful validation.
+     */
+    public void putValid(String token, String username) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlSeconds * 1000;
+        Long tokenExpiry = extractExpiryMillis(token);
+        if (tokenExpiry != null) {
+            expiresAt = Math.min(expiresAt, tokenExpiry);
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        put(digest(token), new Entry(username, expiresAt));
+    }
+
+    /**
+     * Cache a token the auth server rejected.
+     */
+    public void putRejected(String token) {
+        put(digest(token), new Entry(null, System.currentTimeMillis() + negativeTtlSeconds * 1000));
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Snapshot of the cache counters
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", getHits());
+        stats.put("misses", getMisses());
+        stats.put("evictions", getEvictions());
+        return stats;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    /**
+     * Reads the "exp" claim from the token payload without verifying it.
+     * The value only ever shortens how long a result is cached.
+     */
+    private static Long extractExpiryMillis(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return null;
+        }
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+            Matcher matcher = EXP_CLAIM.matcher(payload);
+            return matcher.find() ? Long.parseLong(matcher.group(1)) * 1000 : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static String digest(String token) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Entry(String username, long expiresAt) {}
+
+    /**
+     * Result of a cache lookup. A null username means the token was rejected.
+     */
+    public record Lookup(String username) {
+        public boolean isValid() {
+            return username != null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.twofactorauth.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-account verification state: the client's last observed clock drift
+ * and the last accepted time step.
+ *
+ * The drift lets the next verification try the most likely step first. The
+ * last accepted step stops a code from being accepted twice. State lives in
+ * memory only, so a restart forgets drift and allows one replay per account
+ * within the verification window.
+ */
+@Component
+public class TotpDriftTracker {
+
+    // Entries idle this long are dropped first when the tracker is full (one day)
+    private static final long IDLE_STEPS = 24 * 60 * 60 / TotpEngine.TIME_STEP_SECONDS;
+
+    @Value("${totp.verify.max-tracked-accounts:100000}")
+    private int maxTrackedAccounts;
+
+    private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<>();
+    // Step of the last sweep for idle entries
+    private final AtomicLong lastSweepStep = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Learned drift in steps for the account, 0 if unknown
+     */
+    public int expectedDrift(String accountKey) {
+        State state = states.get(accountKey);
+        return state == null ? 0 : state.drift();
+    }
+
+    /**
+     * Record a successful match.
+     * @param matchedStep step the submitted code belongs to
+     * @param currentStep step of the server clock
+     * @return false if a code for this or a later step was already accepted (replay)
+     */
+    public boolean accept(String accountKey, long matchedStep, long currentStep) {
+        // Soft limit: accounts still in use are never dropped, or their replay protection would be lost.
+        // The sweep scans every entry, so it runs at most once per step however full the tracker stays.
+        if (states.size() >= maxTrackedAccounts) {
+            long lastSweep = lastSweepStep.get();
+            if (lastSweep < currentStep && lastSweepStep.compareAndSet(lastSweep, currentStep)) {
+                states.values().removeIf(state -> state.lastStep() < currentStep - IDLE_STEPS);
+            }
+        }
+        AtomicBoolean accepted = new AtomicBoolean();
+        states.compute(accountKey, (key, existing) -> {
+            if (existing != null && matchedStep <= existing.lastStep()) {
+                return existing;
+            }
+            accepted.set(true);
+            return new State((int) (matchedStep - currentStep), matchedStep);
+        });
+        return accepted.get();
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * Key of one account of one user
+     */
+    public static String accountKey(String username, String issuer, String nickname) {
+        return username + '\u0000' + issuer + '\u0000' + nickname;
+    }
+
+    private record State(int drift, long lastStep) {}
+}
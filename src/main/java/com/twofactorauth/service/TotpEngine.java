@@ -0,0 +1,222 @@
+package com.twofactorauth.service;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * RFC 6238 TOTP code generation (HMAC-SHA1, 30 second steps, 6 digits).
+ *
+ * A secret is decoded and keyed once with {@link #prepare(CharSequence)}; the
+ * returned {@link Generator} then produces codes for any time step without
+ * allocating.
+ */
+public final class TotpEngine {
+
+    public static final long TIME_STEP_SECONDS = 30;
+    public static final int DIGITS = 6;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA1";
+    private static final int MODULUS = 1_000_000;
+
+    private static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    // Base32 alphabet value per ASCII character, -1 for invalid characters
+    private static final byte[] BASE32_VALUES = new byte[128];
+
+    // "00" .. "99" so two digits are written per lookup
+    private static final char[] DIGIT_PAIRS = new char[200];
+
+    static {
+        Arrays.fill(BASE32_VALUES, (byte) -1);
+        for (int i = 0; i < BASE32_ALPHABET.length(); i++) {
+            char c = BASE32_ALPHABET.charAt(i);
+            BASE32_VALUES[c] = (byte) i;
+            BASE32_VALUES[Character.toLowerCase(c)] = (byte) i;
+        }
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[i * 2] = (char) ('0' + i / 10);
+            DIGIT_PAIRS[i * 2 + 1] = (char) ('0' + i % 10);
+        }
+    }
+
+    private TotpEngine() {}
+
+    /**
+     * Time step (counter) for the given wall-clock time
+     */
+    public static long timeStep(long timeMillis) {
+        return timeMillis / (TIME_STEP_SECONDS * 1000);
+    }
+
+    /**
+     * Milliseconds until the step containing timeMillis ends
+     */
+    public static long millisRemainingInStep(long timeMillis) {
+        long stepMillis = TIME_STEP_SECONDS * 1000;
+        return stepMillis - (timeMillis % stepMillis);
+    }
+
+    /**
+     * Decode a Base32 secret and key an HMAC-SHA1 instance with it.
+     * @param base32Secret Base32 secret, case-insensitive, trailing '=' padding allowed
+     * @return generator bound to the secret
+     */
+    public static Generator prepare(CharSequence base32Secret) throws GeneralSecurityException {
+        return new Generator(decodeBase32(base32Secret));
+    }
+
+    /**
+     * Same as {@link #prepare(CharSequence)} for a secret held as ASCII bytes,
+     * such as one decrypted into a reusable buffer. Reads the remaining bytes
+     * without moving the buffer position.
+     */
+    public static Generator prepare(ByteBuffer base32Ascii) throws GeneralSecurityException {
+        return new Generator(decodeBase32(new AsciiChars(base32Ascii)));
+    }
+
+    /**
+     * Decode Base32 (A-Z, 2-7). Lowercase letters are accepted.
+     * @throws IllegalArgumentException on characters outside the alphabet
+     */
+    public static byte[] decodeBase32(CharSequence base32) {
+        int length = base32.length();
+        while (length > 0 && base32.charAt(length - 1) == '=') {
+            length--;
+        }
+        byte[] bytes = new byte[length * 5 / 8]; // Base32: 8 chars = 5 bytes
+        int buffer = 0;
+        int bitsLeft = 0;
+        int byteIndex = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = base32.charAt(i);
+            int val = c < 128 ? BASE32_VALUES[c] : -1;
+            if (val < 0) throw new IllegalArgumentException("Invalid Base32 character: " + c);
+            buffer = (buffer << 5) | val;
+            bitsLeft += 5;
+            if (bitsLeft >= 8) {
+                bytes[byteIndex++] = (byte) (buffer >> (bitsLeft - 8));
+                bitsLeft -= 8;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode bytes as unpadded upper-case Base32, the form otpauth URIs use
+     */
+    public static String encodeBase32(byte[] bytes) {
+        StringBuilder out = new StringBuilder((bytes.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bitsLeft = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bitsLeft += 8;
+            while (bitsLeft >= 5) {
+                out.append(BASE32_ALPHABET.charAt((buffer >> (bitsLeft - 5)) & 31));
+                bitsLeft -= 5;
+            }
+        }
+        if (bitsLeft > 0) {
+            out.append(BASE32_ALPHABET.charAt((buffer << (5 - bitsLeft)) & 31));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Format a code as a zero-padded 6 digit string
+     */
+    public static String formatCode(int code) {
+        char[] chars = new char[DIGITS];
+        formatCode(code, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Write a code as 6 zero-padded digits into dest starting at offset
+     */
+    public static void formatCode(int code, char[] dest, int offset) {
+        for (int pos = offset + DIGITS - 2; pos >= offset; pos -= 2) {
+            int pair = (code % 100) * 2;
+            code /= 100;
+            dest[pos] = DIGIT_PAIRS[pair];
+            dest[pos + 1] = DIGIT_PAIRS[pair + 1];
+        }
+    }
+
+    // Read-only char view of ASCII bytes, so no String copy of the secret is made
+    private record AsciiChars(ByteBuffer bytes) implements CharSequence {
+        @Override
+        public int length() {
+            return bytes.remaining();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(bytes.position() + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiChars(bytes.slice(bytes.position() + start, end - start));
+        }
+
+        @Override
+        public String toString() {
+            return "AsciiChars[" + length() + "]";
+        }
+    }
+
+    /**
+     * Code generator bound to one secret. Holds a keyed Mac and scratch
+     * buffers, so an instance must not be shared between threads.
+     */
+    public static final class Generator {
+        private final Mac mac;
+        private final byte[] counter = new byte[8];
+        private final byte[] hash;
+
+        private Generator(byte[] key) throws GeneralSecurityException {
+            mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            Arrays.fill(key, (byte) 0);
+            hash = new byte[mac.getMacLength()];
+        }
+
+        /**
+         * Code for the time step containing timeMillis
+         */
+        public int generateAt(long timeMillis) {
+            return generate(timeStep(timeMillis));
+        }
+
+        /**
+         * Code for an explicit time step (counter)
+         */
+        public int generate(long step) {
+            for (int i = 7; i >= 0; i--) {
+                counter[i] = (byte) step;
+                step >>>= 8;
+            }
+            mac.update(counter, 0, counter.length);
+            try {
+                mac.doFinal(hash, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("HMAC output buffer too small", e);
+            }
+
+            // Dynamic truncation
+            int offset = hash[hash.length - 1] & 0xF;
+            int truncatedHash = ((hash[offset] & 0x7F) << 24) |
+                                ((hash[offset + 1] & 0xFF) << 16) |
+                                ((hash[offset + 2] & 0xFF) << 8) |
+                                (hash[offset + 3] & 0xFF);
+            return truncatedHash % MODULUS;
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package com.twofactorauth.service;
 
 
-import java.nio.ByteBuffer;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 
 // import com.warrenstrange.googleauth.GoogleAuthenticator;
 import org.springframework.stereotype.Service;
@@ -19,53 +16,83 @@ public class TotpService {
     // }
 
 
+    /**
+     * Compatibility wrapper around {@link TotpEngine}.
+     * Callers generating more than one code per secret should keep the prepared generator instead.
+     */
      public static int generateTOTP(String base32Secret, long timeMillis) throws Exception {
-        // Decode Base32 secret
-        byte[] key = decodeBase32(base32Secret.toUpperCase());
-        
-        // TOTP uses 30-second intervals
-        long timeStep = 30;
-        long timeCounter = timeMillis / (timeStep * 1000);
+        return TotpEngine.prepare(base32Secret).generateAt(timeMillis);
+    }
 
-        // Convert time counter to bytes
-        byte[] data = ByteBuffer.allocate(8).putLong(timeCounter).array();
+    /**
+     * Check a submitted code against the time steps around timeMillis.
+     *
+     * The secret is prepared once for the whole window. Offsets are tried
+     * starting at expectedDrift, then 0, then outwards to +-window, so a
+     * client with a known clock offset usually matches on the first HMAC.
+     *
+     * @param code submitted code, exactly {@link TotpEngine#DIGITS} digits
+     * @param window number of steps accepted either side of the current one
+     * @param expectedDrift learned clock offset of the client, in steps
+     * @return the matching step, or -1 if no step in the window matches
+     */
+    public static long verifyCode(String base32Secret, String code, long timeMillis, int window, int expectedDrift)
+            throws GeneralSecurityException {
+        if (parseCode(code) < 0) {
+            return -1;
+        }
+        return verifyCode(TotpEngine.prepare(base32Secret), code, timeMillis, window, expectedDrift);
+    }
 
-        // Generate HMAC-SHA1 hash
-        Mac mac = Mac.getInstance("HmacSHA1");
-        SecretKeySpec keySpec = new SecretKeySpec(key, "HmacSHA1");
-        mac.init(keySpec);
-        byte[] hash = mac.doFinal(data);
+    /**
+     * {@link #verifyCode(String, String, long, int, int)} with an already prepared secret
+     */
+    public static long verifyCode(TotpEngine.Generator generator, String code, long timeMillis, int window, int expectedDrift) {
+        int submitted = parseCode(code);
+        if (submitted < 0) {
+            return -1;
+        }
 
-        // Dynamic truncation
-        int offset = hash[hash.length - 1] & 0xF;
-        long truncatedHash = ((hash[offset] & 0x7F) << 24) |
-                            ((hash[offset + 1] & 0xFF) << 16) |
-                            ((hash[offset + 2] & 0xFF) << 8) |
-                            (hash[offset + 3] & 0xFF);
+        long currentStep = TotpEngine.timeStep(timeMillis);
+        int firstOffset = Math.max(-window, Math.min(window, expectedDrift));
 
-        // Get 6-digit code
-        int code = (int) (truncatedHash % 1000000);
-        return code;
+        if (matches(generator.generate(currentStep + firstOffset), submitted)) {
+            return currentStep + firstOffset;
+        }
+        // 0, +1, -1, +2, -2, ...
+        for (int i = 0; i <= 2 * window; i++) {
+            int offset = (i % 2 == 1) ? (i + 1) / 2 : -(i / 2);
+            if (offset == firstOffset) {
+                continue;
+            }
+            if (matches(generator.generate(currentStep + offset), submitted)) {
+                return currentStep + offset;
+            }
+        }
+        return -1;
     }
 
-    // Simple Base32 decoder (handles A-Z, 2-7)
-    private static byte[] decodeBase32(String base32) {
-        String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
-        byte[] bytes = new byte[base32.length() * 5 / 8]; // Base32: 8 chars = 5 bytes
-        int buffer = 0;
-        int bitsLeft = 0;
-        int byteIndex = 0;
+    // XOR of two ints takes the same time whatever digits differ, unlike a
+    // character-by-character string compare that stops at the first mismatch
+    private static boolean matches(int generated, int submitted) {
+        return (generated ^ submitted) == 0;
+    }
 
-        for (char c : base32.toUpperCase().toCharArray()) {
-            int val = BASE32_CHARS.indexOf(c);
-            if (val < 0) throw new IllegalArgumentException("Invalid Base32 character: " + c);
-            buffer = (buffer << 5) | val;
-            bitsLeft += 5;
-            if (bitsLeft >= 8) {
-                bytes[byteIndex++] = (byte) ((buffer >> (bitsLeft - 8)) & 0xFF);
-                bitsLeft -= 8;
+    /**
+     * @return the code as an int, or -1 unless it is exactly DIGITS ASCII digits
+     */
+    private static int parseCode(String code) {
+        if (code == null || code.length() != TotpEngine.DIGITS) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            value = value * 10 + (c - '0');
         }
-        return bytes;
+        return value;
     }
 }
@@ -2,6 +2,7 @@ package com.twofactorauth.service;
 
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -11,22 +12,41 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class UserFetchService {
 
-    @Value("${auth.server.url")
+    @Value("${auth.server.url}")
     private String authServerUrl;
 
+    @Autowired
+    private RestTemplate authRestTemplate;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Autowired
+    private AuthServerGuard authServerGuard;
+
+    // Both lookups hit /byEmailUsername/{value}, so concurrent ones for the same value share a call
+    private final SingleFlight<String, Map<String, Object>> userLookups = new SingleFlight<>();
+
     /**
      * Fetch user details by email
      * @param email the email of the user to fetch
      * @return Map containing user data if found, null otherwise
+     * @throws AuthServerUnavailableException if the auth server is not being called right now
      */
     public Map<String, Object> fetchUserByEmailOrUsername(String email) {
+        return userLookups.execute(email, () -> fetchByEmailOrUsername(email));
+    }
+
+    private Map<String, Object> fetchByEmailOrUsername(String email) {
         System.out.println("Fetching user by email or username: " + email);
 
+        Timer.Sample sample = serviceMetrics.start();
         try {
-            RestTemplate restTemplate = new RestTemplate();
             String url = authServerUrl + "/api/v1/auth/byEmailUsername/" + email;
             
             System.out.println("Calling API URL: " + url);
@@ -35,23 +55,29 @@ public class UserFetchService {
             HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
             
             // Use exchange method with Map.class
-            ResponseEntity<Map> response = restTemplate.exchange(
+            ResponseEntity<Map> response = authServerGuard.call(() -> authRestTemplate.exchange(
                 url,
                 HttpMethod.GET,
                 requestEntity,
                 Map.class
-            );
+            ));
             
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> userData = response.getBody();
                 System.out.println("User found by email: " + email);
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.SUCCESS);
                 return userData;
             } else {
                 System.out.println("User not found with email: " + email);
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.REJECTED);
                 return null;
             }
+        } catch (AuthServerUnavailableException e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.UNAVAILABLE);
+            throw e;
         } catch (Exception e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.ERROR);
             System.out.println("Error fetching user by email: " + e.getMessage());
             e.printStackTrace();
             return null;
@@ -62,12 +88,17 @@ public class UserFetchService {
      * Fetch user details by username
      * @param username the username of the user to fetch
      * @return Map containing user data if found, null otherwise
+     * @throws AuthServerUnavailableException if the auth server is not being called right now
      */
     public Map<String, Object> fetchUserByUsername(String username) {
+        return userLookups.execute(username, () -> fetchByUsername(username));
+    }
+
+    private Map<String, Object> fetchByUsername(String username) {
         System.out.println("Fetching user by username: " + username);
         
+        Timer.Sample sample = serviceMetrics.start();
         try {
-            RestTemplate restTemplate = new RestTemplate();
             String url = authServerUrl + "/api/v1/auth/byEmailUsername/" + username;
             
             System.out.println("Calling API URL: " + url);
@@ -76,23 +107,29 @@ public class UserFetchService {
             HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
             
             // Use exchange method with Map.class
-            ResponseEntity<Map> response = restTemplate.exchange(
+            ResponseEntity<Map> response = authServerGuard.call(() -> authRestTemplate.exchange(
                 url,
                 HttpMethod.GET,
                 requestEntity,
                 Map.class
-            );
+            ));
             
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> userData = response.getBody();
                 System.out.println("User found by username: " + username);
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.SUCCESS);
                 return userData;
             } else {
                 System.out.println("User not found with username: " + username);
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.REJECTED);
                 return null;
             }
+        } catch (AuthServerUnavailableException e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.UNAVAILABLE);
+            throw e;
         } catch (Exception e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.ERROR);
             System.out.println("Error fetching user by username: " + e.getMessage());
             e.printStackTrace();
             return null;
@@ -103,12 +140,13 @@ public class UserFetchService {
      * Fetch user by token - similar to JwtService but returns complete user data
      * @param token JWT token
      * @return Map containing user data if token valid, null otherwise
+     * @throws AuthServerUnavailableException if the auth server is not being called right now
      */
     public Map<String, Object> fetchUserByToken(String token) {
         System.out.println("Fetching user by token");
         
+        Timer.Sample sample = serviceMetrics.start();
         try {
-            RestTemplate restTemplate = new RestTemplate();
             String url = authServerUrl + "/api/v1/auth/validateToken";
             
             System.out.println("Calling API URL: " + url);
@@ -118,29 +156,39 @@ public class UserFetchService {
             HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
             
             // Use exchange method with Map.class
-            ResponseEntity<Map> response = restTemplate.exchange(
+            ResponseEntity<Map> response = authServerGuard.call(() -> authRestTemplate.exchange(
                 url,
                 HttpMethod.POST,
                 requestEntity,
                 Map.class
-            );
+            ));
             
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> userData = response.getBody();
                 System.out.println("User found by token");
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.SUCCESS);
                 return userData;
             } else {
                 System.out.println("Invalid token or user not found");
+                serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.REJECTED);
                 return null;
             }
+        } catch (AuthServerUnavailableException e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.UNAVAILABLE);
+            throw e;
         } catch (Exception e) {
+            serviceMetrics.authCall(sample, "fetch-user", ServiceMetrics.ERROR);
             System.out.println("Error fetching user by token: " + e.getMessage());
             e.printStackTrace();
             return null;
         }
     }
     
+    public SingleFlight<String, Map<String, Object>> getUserLookups() {
+        return userLookups;
+    }
+
     /**
      * Helper method to get user ID
      */